@@ -0,0 +1,70 @@
+package adventure.bench;
+
+/**
+ * A single micro-benchmark. Subclasses implement run(), which performs the
+ * measured operation a given number of times. The harness calls run()
+ * repeatedly with varying counts, first to warm up the JIT, and then to
+ * measure the average time per operation.
+ * 
+ * @author Chris Cummins
+ */
+public abstract class Benchmark {
+
+    /**
+     * The configuration file used by benchmarks which need one. Benchmarks are
+     * run from the repository root.
+     */
+    protected static final String CONFIG = "adventure.xml";
+
+    private final String name;
+
+    /**
+     * Create a named benchmark.
+     * 
+     * @param name
+     *            The benchmark name, as printed in results. E.g.
+     *            "dispatch.table"
+     */
+    protected Benchmark(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Return the benchmark name.
+     * 
+     * @return Benchmark name.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Prepare the benchmark state. Called once before any iterations.
+     * 
+     * @throws Exception
+     *             In case of set up error.
+     */
+    public void setUp() throws Exception {
+    }
+
+    /**
+     * Release the benchmark state. Called once after all iterations.
+     * 
+     * @throws Exception
+     *             In case of tear down error.
+     */
+    public void tearDown() throws Exception {
+    }
+
+    /**
+     * Perform the benchmarked operation a number of times.
+     * 
+     * @param n
+     *            The number of operations to perform.
+     * @return A value derived from the operation results, which is consumed
+     *         by the harness to prevent dead code elimination.
+     * @throws Exception
+     *             In case of benchmark error.
+     */
+    public abstract long run(final long n) throws Exception;
+}
@@ -0,0 +1,58 @@
+package adventure.bench;
+
+import adventure.SystemIO;
+import adventure.rooms.DungeonRoom;
+
+/**
+ * Measures the cost of a single player command, from send_command() to the
+ * room's responses being queued for delivery. The room runs its callbacks
+ * inline, and responses are delivered to a stub game server.
+ * 
+ * @author Chris Cummins
+ */
+public class CommandBenchmark extends Benchmark {
+
+    private final String command;
+
+    private RoomFixture fixture;
+    private DungeonRoom room;
+    private StubPlayer player;
+
+    /**
+     * Create a command benchmark.
+     * 
+     * @param name
+     *            The benchmark name, after "command.".
+     * @param command
+     *            The command sent on every operation.
+     */
+    public CommandBenchmark(final String name, final String command) {
+        super("command." + name);
+        this.command = command;
+    }
+
+    @Override
+    public void setUp() {
+        SystemIO.setLevel(SystemIO.Level.WARNING); // Actions log every item
+
+        fixture = new RoomFixture();
+        room = fixture.room(1);
+        player = new StubPlayer("bench", "Bench", room.id);
+
+        room.player_entered(player);
+        room.player_entered(new StubPlayer("other", "Other", room.id));
+    }
+
+    @Override
+    public void tearDown() {
+        fixture.shutdown(10000);
+    }
+
+    @Override
+    public long run(final long n) {
+        for (long i = 0; i < n; i++)
+            room.send_command(player, command);
+
+        return fixture.rs.messages.get() + fixture.rs.moves.get();
+    }
+}
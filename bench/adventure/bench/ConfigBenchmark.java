@@ -0,0 +1,71 @@
+package adventure.bench;
+
+import java.util.Locale;
+
+import adventure.Config;
+
+/**
+ * Measures the time to parse the configuration file and read every option
+ * used at startup. The heap retained by a parsed configuration is reported
+ * once, before timing begins.
+ *
+ * @author Chris Cummins
+ */
+public class ConfigBenchmark extends Benchmark {
+
+    // Number of configurations held to measure their size
+    private static final int RETAINED = 100;
+
+    public ConfigBenchmark() {
+        super("config.parse");
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        final Config[] configs = new Config[RETAINED];
+
+        final long before = usedHeap();
+        for (int i = 0; i < configs.length; i++)
+            configs[i] = new Config(CONFIG);
+        final long bytes = usedHeap() - before;
+
+        System.out.println(String.format(Locale.ROOT,
+                "# %s: retained heap: %d bytes per configuration (%d held)",
+                name(), bytes / configs.length, configs.length));
+    }
+
+    @Override
+    public long run(final long n) throws Exception {
+        long count = 0;
+
+        for (long i = 0; i < n; i++) {
+            final Config cfg = new Config(CONFIG);
+
+            count += cfg.getGameServerHost().length() + cfg.getUser().length()
+                    + cfg.getSecretHash().length() + cfg.getMazeWidth()
+                    + cfg.getMazeHeight() + cfg.getMazeSeed()
+                    + cfg.getDescriptions().length + cfg.getSenderThreads()
+                    + cfg.getQueueCapacity() + cfg.getCoalesceWindow()
+                    + cfg.getScrollDelay() + cfg.getMaxRooms()
+                    + cfg.getIdleTimeout() + cfg.getLogLevel().ordinal()
+                    + cfg.getLogOverflow().ordinal()
+                    + cfg.getExecutionMode().ordinal()
+                    + cfg.getWorkerThreads() + cfg.getWorkerQueue()
+                    + cfg.getMetricsPort();
+        }
+
+        return count;
+    }
+
+    // Return the heap in use after garbage collection
+    private static long usedHeap() throws InterruptedException {
+        final Runtime r = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        return r.totalMemory() - r.freeMemory();
+    }
+}
@@ -0,0 +1,216 @@
+package adventure.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import adventure.Action;
+import adventure.Dispatcher;
+import adventure.ItemLocation;
+import adventure.Player;
+import adventure.RoomID;
+import adventure.actions.Dragon;
+import adventure.actions.Go;
+import adventure.actions.Release;
+import adventure.actions.Say;
+import adventure.actions.Shout;
+import adventure.actions.Take;
+import adventure.rooms.DungeonRoom;
+
+/**
+ * Compares the verb table used by RoomImpl.send_command() against the original
+ * dispatch loop, which tried the regular expression of every action in turn.
+ * Both variants run the same actions and send the same replies through the
+ * outbox to a stub game server, which is checked before timing, so the
+ * difference in score is the cost of dispatch.
+ *
+ * @author Chris Cummins
+ */
+public class DispatchBenchmark extends Benchmark {
+
+    private static final String[] commands = new String[] { "help",
+            "description", "go north", "say hello there", "shout hello",
+            "take 1", "release 1", "show me a dragon", "dance" };
+
+    private final boolean table;
+
+    private RoomFixture fixture;
+    private DungeonRoom room;
+    private StubPlayer player;
+
+    /**
+     * Create a dispatch benchmark.
+     *
+     * @param table
+     *            If true, benchmark the verb table, else the regex loop.
+     */
+    public DispatchBenchmark(final boolean table) {
+        super(table ? "dispatch.table" : "dispatch.regex");
+        this.table = table;
+    }
+
+    @Override
+    public void setUp() {
+        final List<String> expected = replies(true);
+
+        if (!replies(false).equals(expected))
+            throw new IllegalStateException("Dispatch variants reply "
+                    + "differently");
+
+        fixture = new RoomFixture();
+        room = room(fixture, table);
+        player = new StubPlayer("bench", "Bench", room.id);
+        room.player_entered(player);
+    }
+
+    @Override
+    public void tearDown() {
+        if (fixture != null)
+            fixture.shutdown(1000);
+    }
+
+    @Override
+    public long run(final long n) {
+        for (long i = 0; i < n; i++)
+            room.send_command(player, commands[(int) (i % commands.length)]);
+
+        return fixture.rs.messages.get() + fixture.rs.moves.get();
+    }
+
+    // Send every command through one variant, returning the lines sent to
+    // the game server in a stable order
+    private static List<String> replies(final boolean table) {
+        final Recorder rs = new Recorder();
+        final RoomFixture f = new RoomFixture(rs);
+        final DungeonRoom r = room(f, table);
+        final StubPlayer p = new StubPlayer("bench", "Bench", r.id);
+
+        r.player_entered(p);
+        for (final String command : commands)
+            r.send_command(p, command);
+        f.shutdown(10000); // Deliver every reply
+
+        synchronized (rs.calls) {
+            final List<String> calls = new ArrayList<String>(rs.calls);
+
+            Collections.sort(calls); // Senders may merge and interleave
+            return calls;
+        }
+    }
+
+    private static DungeonRoom room(final RoomFixture f, final boolean table) {
+        return table ? f.room(1) : new LegacyRoom(f);
+    }
+
+    /**
+     * A room which dispatches commands with the original RoomImpl
+     * send_command() loop.
+     */
+    private static final class LegacyRoom extends DungeonRoom {
+
+        private final Legacy[] legacy;
+
+        LegacyRoom(final RoomFixture f) {
+            super(1, RoomFixture.USER, RoomFixture.DESCRIPTION, f.rs, f.outbox,
+                    Dispatcher.INLINE, f.geometry);
+
+            legacy = new Legacy[] {
+                    new Legacy("^go\\s+.*", "go\\s+", "go", new Go(this)),
+                    new Legacy("^shout\\s.+", "shout\\s+", "shout",
+                            new Shout(this)),
+                    new Legacy("^say\\s.+", "say\\s+", "say", new Say(this)),
+                    new Legacy("^take\\s+.*$", "take\\s+", "take",
+                            new Take(this)),
+                    new Legacy("^release\\s+.*$", "release\\s+", "release",
+                            new Release(this)),
+                    new Legacy("^show\\s+me\\s+a\\s+dragon$", "show\\s+",
+                            "show", new Dragon(this)) };
+        }
+
+        @Override
+        protected void dispatch(final Player p, final String command) {
+            final String s = command.trim().toLowerCase();
+
+            // Built in commands
+            if (s.matches("^help$")) {
+                help(p);
+                return;
+            } else if (s.matches("^description$")) {
+                description(p);
+                return;
+            }
+
+            // Actions functionality
+            for (final Legacy l : legacy) {
+                if (command.matches(l.match)
+                        && l.action.process(p, l.verb,
+                                command.replaceFirst(l.strip, "")))
+                    return;
+            }
+
+            // Fall-through
+            sendMessage(p, "Unrecognised command!");
+        }
+    }
+
+    // An action, paired with the expressions which used to select it
+    private static final class Legacy {
+        final String match;
+        final String strip;
+        final String verb;
+        final Action action;
+
+        Legacy(final String match, final String strip, final String verb,
+                final Action action) {
+            Pattern.compile(match); // Sanity check
+            this.match = match;
+            this.strip = strip;
+            this.verb = verb;
+            this.action = action;
+        }
+    }
+
+    /**
+     * A stub game server which records the calls made against it, one line of
+     * each message at a time, as messages may be merged by the outbox.
+     */
+    private static final class Recorder extends StubRoomServer {
+
+        private static final long serialVersionUID = 6070254717912583214L;
+
+        final List<String> calls = Collections
+                .synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void send_message(final int room_number, final Player p,
+                final String[] message) {
+            super.send_message(room_number, p, message);
+            for (final String line : message)
+                calls.add("send_message " + p.user_name() + " " + line);
+        }
+
+        @Override
+        public void broadcast_message(final int room_number,
+                final String[] message) {
+            super.broadcast_message(room_number, message);
+            for (final String line : message)
+                calls.add("broadcast_message " + line);
+        }
+
+        @Override
+        public void move_player(final int room_number, final Player p,
+                final RoomID new_room) {
+            super.move_player(room_number, p, new_room);
+            calls.add("move_player " + p.user_name() + " "
+                    + new_room.room_number);
+        }
+
+        @Override
+        public void move_item(final int room_number, final Player p,
+                final int i, final ItemLocation new_location) {
+            super.move_item(room_number, p, i, new_location);
+            calls.add("move_item " + p.user_name() + " " + i);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package adventure.bench;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import adventure.Dispatcher;
+import adventure.MazeGeometry;
+import adventure.RoomImpl;
+import adventure.SystemIO;
+
+/**
+ * A load test of room callback execution. A fixed pool of threads stands in
+ * for the ORB's request threads, and delivers "go" commands from many
+ * concurrent players to their rooms. Every move blocks on the game server for
+ * a millisecond, so in ORB mode throughput is capped by the number of ORB
+ * threads, while in executor mode the ORB threads return immediately and the
+ * moves are spread over the worker pool.
+ * 
+ * @author Chris Cummins
+ */
+public class ExecutionBenchmark extends Benchmark {
+
+    private static final int PLAYERS = 1024;
+    private static final int ROOMS = 128;
+    private static final int ORB_THREADS = 16;
+    private static final int WORKER_THREADS = 128;
+    private static final long MOVE_LATENCY = 1; // Milliseconds
+
+    private final Dispatcher.Mode mode;
+
+    private Dispatcher dispatcher;
+    private RoomFixture fixture;
+    private ExecutorService orb;
+    private RoomImpl[] rooms;
+    private StubPlayer[] players;
+
+    /**
+     * Create an execution benchmark.
+     * 
+     * @param mode
+     *            The callback execution mode to benchmark.
+     */
+    public ExecutionBenchmark(final Dispatcher.Mode mode) {
+        super("execution." + mode.name().toLowerCase(Locale.ROOT));
+        this.mode = mode;
+    }
+
+    @Override
+    public void setUp() {
+        dispatcher = new Dispatcher(mode, WORKER_THREADS, ROOMS);
+        fixture = new RoomFixture(new StubRoomServer(MOVE_LATENCY),
+                new MazeGeometry(ROOMS, 1));
+        orb = Executors.newFixedThreadPool(ORB_THREADS);
+        rooms = new RoomImpl[ROOMS];
+        players = new StubPlayer[PLAYERS];
+
+        SystemIO.setLevel(SystemIO.Level.WARNING); // Callbacks log every move
+
+        for (int i = 0; i < rooms.length; i++)
+            rooms[i] = fixture.room(i + 1, dispatcher.serial());
+
+        for (int i = 0; i < players.length; i++) {
+            final RoomImpl room = rooms[i % rooms.length];
+
+            players[i] = new StubPlayer("p" + i, "Player " + i, room.id);
+            room.player_entered(players[i]);
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        orb.shutdown();
+        orb.awaitTermination(10, TimeUnit.SECONDS);
+        dispatcher.shutdown(10000);
+        fixture.shutdown(10000);
+    }
+
+    @Override
+    public long run(final long n) throws Exception {
+        final long target = fixture.rs.moves.get() + n;
+
+        for (long i = 0; i < n; i++) {
+            final int p = (int) (i % players.length);
+
+            orb.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rooms[p % rooms.length].send_command(players[p],
+                            "go north");
+                }
+            });
+        }
+
+        // Wait for every move to reach the game server
+        while (fixture.rs.moves.get() < target)
+            Thread.sleep(1);
+
+        return fixture.rs.moves.get();
+    }
+}
@@ -0,0 +1,412 @@
+package adventure.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omg.CORBA.UserException;
+import org.omg.PortableServer.POA;
+
+import adventure.CBRoomServer;
+import adventure.CBRoomServerHelper;
+import adventure.CBRoomServerPOA;
+import adventure.GameServerPOA;
+import adventure.Histogram;
+import adventure.IRoomServer;
+import adventure.ItemLocation;
+import adventure.Player;
+import adventure.PlayerHelper;
+import adventure.PlayerPOA;
+import adventure.Room;
+import adventure.RoomID;
+import adventure.cant_move_item;
+import adventure.cant_move_player;
+import adventure.player_not_in_room;
+import adventure.registration_failed;
+import adventure.room_not_found;
+
+/**
+ * A local stand-in for the game server, implemented against adventure.idl, so
+ * that a room server can be load tested without the real game server. It
+ * accepts any registration, hosts simulated players, and answers the room
+ * server's callbacks. Players which are sent to another room by a "go"
+ * command are moved there, as the real game server would. Several room
+ * servers may register, e.g. those serving the regions of a partitioned maze,
+ * and players may be moved to any room of any of them.<br/>
+ * <br/>
+ *
+ * The latency of every call made to the room server is recorded, as is the
+ * response time of commands: the time from send_command() until the first
+ * message to the player arrives back.
+ *
+ * @author Chris Cummins
+ */
+public class FakeGameServer extends GameServerPOA {
+
+    /**
+     * Histogram names, in report order.
+     */
+    public static final String[] OPERATIONS = new String[] { "find_room",
+            "player_entered", "player_left", "send_command", "response" };
+
+    private final POA poa;
+
+    // Latency histograms, indexed as OPERATIONS
+    private final Histogram[] latency = new Histogram[OPERATIONS.length];
+
+    // Callbacks from the room server
+    public final AtomicLong messages = new AtomicLong();
+    public final AtomicLong broadcasts = new AtomicLong();
+    public final AtomicLong moves = new AtomicLong();
+    public final AtomicLong items = new AtomicLong();
+
+    // Registered room servers by user, guarded by itself
+    private final Map<String, IRoomServer> servers = new HashMap<String, IRoomServer>();
+
+    private volatile String user; // The first to register
+    private volatile boolean unregistered;
+
+    /**
+     * Create a game server.
+     *
+     * @param poa
+     *            An active POA with implicit activation, e.g. the root POA,
+     *            which serves the game server and its players.
+     */
+    public FakeGameServer(final POA poa) {
+        this.poa = poa;
+
+        for (int i = 0; i < latency.length; i++)
+            latency[i] = new Histogram();
+    }
+
+    @Override
+    public CBRoomServer register(final String user_name,
+            final String secret_hash, final IRoomServer room_server)
+            throws registration_failed {
+        final CBRoomServer callbacks;
+
+        // Not _this(), which inside an upcall returns the object invoked
+        try {
+            callbacks = CBRoomServerHelper.narrow(poa
+                    .servant_to_reference(new Callbacks()));
+        } catch (UserException e) {
+            throw new registration_failed(e.toString());
+        }
+
+        synchronized (servers) {
+            if (user == null)
+                user = user_name;
+
+            servers.put(user_name, room_server);
+            servers.notifyAll();
+        }
+
+        return callbacks;
+    }
+
+    @Override
+    public void ping() {
+    }
+
+    /**
+     * Wait for a room server to register.
+     *
+     * @param timeout
+     *            Maximum time to wait, in milliseconds.
+     * @return True if a room server has registered.
+     * @throws InterruptedException
+     *             If interrupted while waiting.
+     */
+    public boolean awaitRegistration(final long timeout)
+            throws InterruptedException {
+        return awaitRegistration(1, timeout);
+    }
+
+    /**
+     * Wait for a number of room servers to register.
+     *
+     * @param count
+     *            The number of room servers.
+     * @param timeout
+     *            Maximum time to wait, in milliseconds.
+     * @return True if that many room servers have registered.
+     * @throws InterruptedException
+     *             If interrupted while waiting.
+     */
+    public boolean awaitRegistration(final int count, final long timeout)
+            throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+
+        synchronized (servers) {
+            long remaining = timeout;
+
+            while (servers.size() < count && remaining > 0) {
+                servers.wait(remaining);
+                remaining = end - System.currentTimeMillis();
+            }
+
+            return servers.size() >= count;
+        }
+    }
+
+    /**
+     * Return whether the room server has unregistered.
+     *
+     * @return True once unregister() has been called.
+     */
+    public boolean isUnregistered() {
+        return unregistered;
+    }
+
+    /**
+     * Create a simulated player, who is not yet in a room.
+     *
+     * @param name
+     *            The player's user name.
+     * @return The player.
+     */
+    public SimPlayer player(final String name) {
+        final SimPlayer p = new SimPlayer(name);
+
+        try {
+            p.ref = PlayerHelper.narrow(poa.servant_to_reference(p));
+        } catch (UserException e) {
+            throw new IllegalStateException("Failed to activate " + name, e);
+        }
+
+        return p;
+    }
+
+    /**
+     * Return the latency histogram of an operation.
+     *
+     * @param operation
+     *            One of OPERATIONS.
+     * @return The histogram, in nanoseconds.
+     */
+    public Histogram latency(final String operation) {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (OPERATIONS[i].equals(operation))
+                return latency[i];
+        }
+
+        throw new IllegalArgumentException("No operation " + operation);
+    }
+
+    /**
+     * Move a player into a room of the first room server to register, leaving
+     * their current room first.
+     *
+     * @param p
+     *            The player.
+     * @param n
+     *            The room number.
+     * @throws room_not_found
+     *             In case the room server has no such room.
+     */
+    public void enter(final SimPlayer p, final int n) throws room_not_found {
+        enter(p, user, n);
+    }
+
+    /**
+     * Move a player into a room, leaving their current room first.
+     *
+     * @param p
+     *            The player.
+     * @param server
+     *            The user of the room server.
+     * @param n
+     *            The room number.
+     * @throws room_not_found
+     *             In case there is no such room server, or it has no such
+     *             room.
+     */
+    public void enter(final SimPlayer p, final String server, final int n)
+            throws room_not_found {
+        final IRoomServer rs;
+
+        synchronized (servers) {
+            rs = servers.get(server);
+        }
+
+        if (rs == null)
+            throw new room_not_found("No room server " + server);
+
+        synchronized (p) {
+            leave(p);
+
+            long start = System.nanoTime();
+            final Room room = rs.find_room(n);
+            latency[0].record(System.nanoTime() - start);
+
+            p.room = room;
+            p.server = server;
+            p.number = n;
+
+            start = System.nanoTime();
+            room.player_entered(p.ref);
+            latency[1].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Remove a player from their room, if they are in one.
+     *
+     * @param p
+     *            The player.
+     */
+    public void leave(final SimPlayer p) {
+        synchronized (p) {
+            final Room room = p.room;
+
+            if (room == null)
+                return;
+
+            p.room = null;
+
+            final long start = System.nanoTime();
+            room.player_left(p.ref);
+            latency[2].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Send a command from a player to their room.
+     *
+     * @param p
+     *            The player, who must be in a room.
+     * @param command
+     *            The command.
+     */
+    public void command(final SimPlayer p, final String command) {
+        synchronized (p) {
+            final Room room = p.room;
+
+            if (room == null)
+                return;
+
+            final long start = System.nanoTime();
+            p.sent.compareAndSet(0, start); // Time the oldest unanswered
+            room.send_command(p.ref, command);
+            latency[3].record(System.nanoTime() - start);
+        }
+    }
+
+    // Record the response time of a player's oldest unanswered command
+    private void responded(final Player p) {
+        try {
+            final SimPlayer player = (SimPlayer) poa.reference_to_servant(p);
+            final long sent = player.sent.getAndSet(0);
+
+            if (sent != 0)
+                latency[4].record(System.nanoTime() - sent);
+        } catch (Exception e) { // Not one of our players
+        }
+    }
+
+    /**
+     * A simulated player.
+     */
+    public final class SimPlayer extends PlayerPOA {
+
+        private final String name;
+
+        Player ref; // Set once the player is activated
+
+        // Current room, changed under the player lock
+        private volatile Room room;
+        private volatile String server;
+        private volatile int number;
+
+        // Time the oldest unanswered command was sent, or 0
+        final AtomicLong sent = new AtomicLong();
+
+        SimPlayer(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Return whether the player is in a room.
+         *
+         * @return True if in a room.
+         */
+        public boolean inRoom() {
+            return room != null;
+        }
+
+        @Override
+        public String user_name() {
+            return name;
+        }
+
+        @Override
+        public String real_name() {
+            return name;
+        }
+
+        @Override
+        public RoomID location() {
+            return new RoomID(server != null ? server : user, number);
+        }
+
+        @Override
+        public void ping() {
+        }
+    }
+
+    /**
+     * The callbacks offered to the room server.
+     */
+    private final class Callbacks extends CBRoomServerPOA {
+
+        @Override
+        public void unregister() {
+            unregistered = true;
+        }
+
+        @Override
+        public void send_message(final int room_number, final Player p,
+                final String[] message) throws room_not_found,
+                player_not_in_room {
+            messages.incrementAndGet();
+            responded(p);
+        }
+
+        @Override
+        public void broadcast_message(final int room_number,
+                final String[] message) throws room_not_found {
+            broadcasts.incrementAndGet();
+        }
+
+        @Override
+        public void move_player(final int room_number, final Player p,
+                final RoomID new_room) throws room_not_found,
+                cant_move_player {
+            moves.incrementAndGet();
+            responded(p);
+
+            try {
+                enter((SimPlayer) poa.reference_to_servant(p),
+                        new_room.user_name, new_room.room_number);
+            } catch (room_not_found e) {
+                throw e;
+            } catch (Exception e) {
+                throw new cant_move_player(e.toString());
+            }
+        }
+
+        @Override
+        public void move_item(final int room_number, final Player p,
+                final int i, final ItemLocation new_location)
+                throws room_not_found, cant_move_item {
+            items.incrementAndGet();
+            responded(p);
+            throw new cant_move_item("No items in a load test");
+        }
+
+        @Override
+        public void ping() {
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package adventure.bench;
+
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+import org.omg.CORBA.ORB;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.POAHelper;
+
+import adventure.Config;
+import adventure.Maze;
+
+/**
+ * Measures Maze.find_room() under contention, with a number of threads looking
+ * up random rooms at once. The maze runs under a local ORB and POA, so no
+ * network is used. Room references are built before measuring, so each
+ * operation is a registry lookup of an existing reference.
+ * 
+ * @author Chris Cummins
+ */
+public class FindRoomBenchmark extends Benchmark {
+
+    // Number of distinct rooms looked up
+    private static final int ROOMS = 1 << 12;
+
+    private final int threads;
+
+    private ORB orb;
+    private Maze maze;
+    private int[] rooms;
+
+    /**
+     * Create a find_room() benchmark.
+     * 
+     * @param threads
+     *            The number of threads looking up rooms at once.
+     */
+    public FindRoomBenchmark(final int threads) {
+        super("maze.find_room." + threads + "t");
+        this.threads = threads;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        final Config cfg = new Config(CONFIG);
+        final Random random = new Random(0);
+        final int size = cfg.getMazeWidth() * cfg.getMazeHeight();
+
+        orb = ORB.init(new String[0], null);
+
+        final POA poa = POAHelper.narrow(orb
+                .resolve_initial_references("RootPOA"));
+        poa.the_POAManager().activate();
+
+        maze = new Maze(cfg, poa);
+        maze.roomServer(new StubRoomServer());
+
+        rooms = new int[ROOMS];
+        for (int i = 0; i < rooms.length; i++) {
+            rooms[i] = random.nextInt(size) - size / 2;
+            maze.find_room(rooms[i]);
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        if (maze != null)
+            maze.shutdown();
+        if (orb != null)
+            orb.destroy();
+    }
+
+    @Override
+    public long run(final long n) throws Exception {
+        final Thread[] workers = new Thread[threads];
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        final long[] found = new long[threads];
+        final Exception[] error = new Exception[1];
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+
+                        for (long i = id; i < n; i += threads) {
+                            final int room = rooms[(int) i & (ROOMS - 1)];
+
+                            if (maze.find_room(room) != null)
+                                found[id]++;
+                        }
+                    } catch (Exception e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+
+        for (final Thread w : workers)
+            w.join();
+
+        if (error[0] != null)
+            throw error[0];
+
+        long total = 0;
+        for (final long f : found)
+            total += f;
+
+        return total;
+    }
+}
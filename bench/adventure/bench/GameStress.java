@@ -0,0 +1,152 @@
+package adventure.bench;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+
+import adventure.Dispatcher;
+import adventure.Player;
+import adventure.SystemIO;
+import adventure.rooms.MainRoom;
+
+/**
+ * Races many players playing guess the number in the main room at the same
+ * time, and checks that every player's game is their own: each player finds
+ * their number by binary search, in no more guesses than that allows. Games
+ * must end when their player leaves the room.
+ * 
+ * @author Chris Cummins
+ */
+public class GameStress extends StressTest {
+
+    private static final int PLAYERS = 16; // Per thread
+    private static final int GAMES = 50; // Per player
+
+    // Guesses needed to find a number in [0, 100) by binary search
+    private static final int MAX_GUESSES = 7;
+
+    public GameStress() {
+        super("game.concurrent-sessions");
+    }
+
+    @Override
+    public void run() throws Exception {
+        final RoomFixture fixture = new RoomFixture();
+        final ConcurrentHashMap<String, String> replies = new ConcurrentHashMap<String, String>();
+        final MainRoom room = new MainRoom(0, RoomFixture.USER, fixture.rs,
+                fixture.outbox, Dispatcher.INLINE, fixture.geometry) {
+            @Override
+            public void sendMessage(final Player p, final String msg) {
+                if (!msg.endsWith(" the room.")) // Arrivals and departures
+                    replies.put(p.user_name(), msg);
+            }
+        };
+        final Thread[] threads = new Thread[threads()];
+        final CyclicBarrier start = new CyclicBarrier(threads.length);
+        final Throwable[] error = new Throwable[1];
+
+        SystemIO.setLevel(SystemIO.Level.WARNING); // Games log every move
+
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    final StubPlayer[] players = new StubPlayer[PLAYERS];
+                    final int[] low = new int[PLAYERS];
+                    final int[] high = new int[PLAYERS];
+                    final int[] guesses = new int[PLAYERS];
+
+                    try {
+                        start.await();
+
+                        for (int i = 0; i < PLAYERS; i++) {
+                            players[i] = new StubPlayer("p" + id + "." + i,
+                                    "Player " + id + "." + i, room.id);
+                            room.player_entered(players[i]);
+                        }
+
+                        for (int g = 0; g < GAMES; g++) {
+                            for (int i = 0; i < PLAYERS; i++) {
+                                room.send_command(players[i],
+                                        "play guess the number");
+                                check(replies.get(players[i].user_name())
+                                        .startsWith("Welcome"), "Player "
+                                        + id + "." + i
+                                        + " could not start a game");
+                                low[i] = 0;
+                                high[i] = 99;
+                                guesses[i] = 0;
+                            }
+
+                            // Interleave the guesses of every player
+                            int playing = PLAYERS;
+                            while (playing > 0) {
+                                playing = 0;
+
+                                for (int i = 0; i < PLAYERS; i++) {
+                                    if (low[i] > high[i])
+                                        continue; // Finished
+
+                                    final int guess = (low[i] + high[i]) / 2;
+                                    room.send_command(players[i], "guess "
+                                            + guess);
+                                    guesses[i]++;
+
+                                    final String reply = replies
+                                            .get(players[i].user_name());
+                                    if (reply.startsWith("Well done"))
+                                        low[i] = high[i] + 1;
+                                    else if (reply.endsWith("too high"))
+                                        high[i] = guess - 1;
+                                    else if (reply.endsWith("too low"))
+                                        low[i] = guess + 1;
+                                    else
+                                        check(false, "Unexpected reply: "
+                                                + reply);
+
+                                    check(guesses[i] <= MAX_GUESSES
+                                            && (low[i] <= high[i] || reply
+                                                    .startsWith("Well done")),
+                                            "Player " + id + "." + i
+                                                    + " was not playing "
+                                                    + "their own game");
+                                    playing++;
+                                }
+                            }
+                        }
+
+                        // Leaving the room ends a player's game
+                        for (int i = 0; i < PLAYERS; i++) {
+                            room.send_command(players[i],
+                                    "play guess the number");
+                            room.player_left(players[i]);
+                            room.player_entered(players[i]);
+                            room.send_command(players[i], "guess 0");
+                            check(replies.get(players[i].user_name())
+                                    .startsWith("You're not playing"),
+                                    "Player " + id + "." + i
+                                            + " kept their game after leaving");
+                            room.player_left(players[i]);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (final Thread t : threads)
+            t.join();
+        fixture.shutdown(5000);
+        SystemIO.setLevel(SystemIO.Level.OK);
+
+        if (error[0] instanceof AssertionError)
+            throw (AssertionError) error[0];
+        else if (error[0] != null)
+            throw new Exception(error[0]);
+    }
+}
@@ -0,0 +1,132 @@
+package adventure.bench;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * A minimal benchmark harness in the style of JMH. Each benchmark is run for a
+ * number of timed warm up iterations, followed by a number of timed
+ * measurement iterations. Results are reported as the mean time per operation,
+ * with an error margin of three standard deviations. Results may also be
+ * written as CSV, so that runs made at different commits can be compared.
+ * 
+ * @author Chris Cummins
+ */
+public final class Harness {
+
+    // Consumes benchmark results to prevent dead code elimination
+    private static volatile long sink;
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationNanos;
+    private final PrintStream out;
+    private PrintStream csv;
+
+    /**
+     * Create a benchmark harness.
+     * 
+     * @param warmupIterations
+     *            Number of discarded warm up iterations.
+     * @param measureIterations
+     *            Number of measured iterations.
+     * @param iterationMillis
+     *            Target duration of each iteration.
+     * @param out
+     *            Results stream.
+     */
+    public Harness(final int warmupIterations, final int measureIterations,
+            final long iterationMillis, final PrintStream out) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.iterationNanos = iterationMillis * 1000000L;
+        this.out = out;
+    }
+
+    /**
+     * Also write results as CSV, one row per benchmark.
+     * 
+     * @param csv
+     *            CSV results stream.
+     */
+    public void csv(final PrintStream csv) {
+        this.csv = csv;
+        csv.println("benchmark,mode,count,score,error,units");
+    }
+
+    /**
+     * Print the results table header.
+     */
+    public void header() {
+        out.println(String.format(Locale.ROOT, "%-40s %5s %5s %12s    %10s  %s",
+                "Benchmark", "Mode", "Cnt", "Score", "Error", "Units"));
+    }
+
+    /**
+     * Run a benchmark and print its result.
+     * 
+     * @param b
+     *            The benchmark to run.
+     * @return The mean score, in nanoseconds per operation, or NaN if the
+     *         benchmark could not be set up.
+     * @throws Exception
+     *             In case of benchmark error.
+     */
+    public double run(final Benchmark b) throws Exception {
+        final double[] scores = new double[measureIterations];
+        long n = 1;
+
+        try {
+            b.setUp();
+        } catch (Exception e) { // E.g. no ORB available
+            out.println(String.format(Locale.ROOT, "%-40s %5s  %s", b.name(),
+                    "skip", e));
+            b.tearDown();
+            return Double.NaN;
+        }
+
+        try {
+            // Calibrate the batch size to the iteration duration
+            long elapsed = 0;
+            while (elapsed < iterationNanos / 10) {
+                n *= 2;
+                elapsed = time(b, n);
+            }
+            n = Math.max(1, n * iterationNanos / Math.max(1, elapsed));
+
+            for (int i = 0; i < warmupIterations; i++)
+                time(b, n);
+
+            for (int i = 0; i < measureIterations; i++)
+                scores[i] = (double) time(b, n) / n;
+        } finally {
+            b.tearDown();
+        }
+
+        double mean = 0, variance = 0;
+        for (final double s : scores)
+            mean += s / scores.length;
+        for (final double s : scores)
+            variance += (s - mean) * (s - mean) / Math.max(1, scores.length - 1);
+
+        out.println(String.format(Locale.ROOT,
+                "%-40s %5s %5d %12.3f +- %10.3f  %s", b.name(), "avgt",
+                scores.length, mean, 3 * Math.sqrt(variance), "ns/op"));
+
+        if (csv != null) {
+            csv.println(String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.3f,%s",
+                    b.name(), "avgt", scores.length, mean,
+                    3 * Math.sqrt(variance), "ns/op"));
+            csv.flush();
+        }
+
+        return mean;
+    }
+
+    // Time a batch of operations
+    private static long time(final Benchmark b, final long n) throws Exception {
+        final long start = System.nanoTime();
+        sink += b.run(n);
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,136 @@
+package adventure.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import adventure.Journal;
+import adventure.RoomState;
+import adventure.Snapshot;
+
+/**
+ * Races many threads appending to a journal against repeated compaction, then
+ * reopens the journal and checks that every record survives intact, either in
+ * the last snapshot or in the replayed journal.
+ * 
+ * @author Chris Cummins
+ */
+public class JournalStress extends StressTest {
+
+    private static final int RECORDS = 2000; // Per thread
+
+    public JournalStress() {
+        super("journal.replay-after-compact");
+    }
+
+    @Override
+    public void run() throws Exception {
+        final File save = File.createTempFile("adventure", ".sav");
+        final File journalFile = new File(save.getPath() + ".journal");
+        final int rooms = threads() * RECORDS;
+        final AtomicIntegerArray added = new AtomicIntegerArray(rooms);
+        final Thread[] threads = new Thread[threads()];
+        final AtomicBoolean done = new AtomicBoolean();
+        final Throwable[] error = new Throwable[1];
+
+        save.delete();
+        final Journal journal = new Journal(save);
+
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t * RECORDS;
+
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = first; i < first + RECORDS; i++) {
+                            added.set(i, 1); // State change, then record
+                            journal.append(Journal.ITEM_ADDED, i, item(i));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        final Thread compactor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        final long mark = journal.mark();
+                        final List<RoomState> states;
+
+                        states = new ArrayList<RoomState>();
+
+                        for (int i = 0; i < rooms; i++) {
+                            if (added.get(i) != 0) {
+                                final RoomState state = new RoomState(i);
+                                state.items.add(item(i));
+                                states.add(state);
+                            }
+                        }
+
+                        journal.compact(new Snapshot(0, rooms, 1,
+                                new String[] { "" }, new BitSet(), states
+                                        .toArray(new RoomState[states.size()])),
+                                mark);
+                    }
+                } catch (Throwable e) {
+                    synchronized (error) {
+                        error[0] = e;
+                    }
+                }
+            }
+        };
+        compactor.start();
+
+        for (final Thread t : threads)
+            t.join();
+        done.set(true);
+        compactor.join();
+        journal.close();
+
+        if (error[0] instanceof AssertionError)
+            throw (AssertionError) error[0];
+        else if (error[0] != null)
+            throw new Exception(error[0]);
+
+        // Restore, as at startup
+        final BitSet restored = new BitSet();
+        final Journal reopened = new Journal(save);
+
+        if (save.isFile()) {
+            for (final RoomState state : Snapshot.read(save).rooms)
+                restored.set(state.room);
+        }
+
+        reopened.replay(new Journal.Handler() {
+            @Override
+            public void replay(final int type, final int room,
+                    final String data) {
+                if (type == Journal.ITEM_ADDED && data.equals(item(room)))
+                    restored.set(room);
+            }
+        });
+        reopened.close();
+
+        save.delete();
+        journalFile.delete();
+
+        check(restored.cardinality() == rooms, (rooms - restored
+                .cardinality()) + " of " + rooms + " records lost");
+    }
+
+    // The data of the record for a room, of varying length
+    private static String item(final int room) {
+        return "item-" + Integer.toString(room, 2);
+    }
+}
@@ -0,0 +1,249 @@
+package adventure.bench;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omg.CORBA.ORB;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.POAHelper;
+
+import adventure.Config;
+import adventure.Histogram;
+import adventure.RoomServerProcess;
+import adventure.SystemIO;
+import adventure.room_not_found;
+
+/**
+ * Load tests a room server on one machine. A FakeGameServer is started, and a
+ * room server is started in the same process, registering with it through a
+ * copy of the configuration whose game server host is the fake's IOR. Driver
+ * threads then act out a workload of simulated players entering rooms,
+ * sending commands and leaving, and latency percentiles are reported for
+ * every operation. Options are given as name=value arguments:<br/>
+ * <br/>
+ *
+ * <pre>
+ * config=adventure.xml   configuration of the room server under test
+ * players=2000           number of simulated players
+ * threads=16             number of driver threads
+ * duration=60            length of the run, in seconds
+ * think=0                pause between each player's operations, in ms
+ * mix=enter:1,command:8,leave:1
+ *                        relative weights of each operation
+ * commands=say hello;help;description;go north
+ *                        commands sent, chosen at random
+ * log=warning            room server log level
+ * </pre>
+ *
+ * @author Chris Cummins
+ */
+public abstract class LoadTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Time between progress reports, in milliseconds
+    private static final long REPORT_INTERVAL = 10000;
+
+    /**
+     * Run a load test.
+     *
+     * @param args
+     *            Options, as name=value pairs.
+     */
+    public static void main(String[] args) throws Exception {
+        final String config = option(args, "config", "adventure.xml");
+        final int players = Integer.parseInt(option(args, "players", "2000"));
+        final int threads = Integer.parseInt(option(args, "threads", "16"));
+        final long duration = Long.parseLong(option(args, "duration", "60"));
+        final long think = Long.parseLong(option(args, "think", "0"));
+        final int[] mix = mix(option(args, "mix",
+                "enter:1,command:8,leave:1"));
+        final String[] commands = option(args, "commands",
+                "say hello;help;description;go north").split(";");
+
+        SystemIO.setLevel(SystemIO.Level.valueOf(option(args, "log",
+                "warning").toUpperCase(Locale.ROOT)));
+
+        // Start the game server
+        final ORB orb = ORB.init(new String[0], null);
+        final POA poa = POAHelper.narrow(orb
+                .resolve_initial_references("RootPOA"));
+        poa.the_POAManager().activate();
+
+        final FakeGameServer gs = new FakeGameServer(poa);
+        final String ior = orb.object_to_string(gs._this(orb));
+
+        new Thread("game-server") {
+            @Override
+            public void run() {
+                orb.run();
+            }
+        }.start();
+
+        // Start the room server under test
+        final File cfg = hostConfig(new File(config), ior);
+        final File save = File.createTempFile("load", ".sav");
+        final Config c = new Config(cfg);
+        final int rooms = c.getMazeWidth() * c.getMazeHeight();
+
+        save.delete(); // Start with a new maze
+        new RoomServerProcess(c, save).start();
+
+        if (!gs.awaitRegistration(30000))
+            throw new IllegalStateException("Room server did not register");
+
+        // Drive the workload
+        final FakeGameServer.SimPlayer[] sim = new FakeGameServer.SimPlayer[players];
+        for (int i = 0; i < sim.length; i++)
+            sim[i] = gs.player("load" + i);
+
+        final long end = System.currentTimeMillis() + duration * 1000;
+        final AtomicLong errors = new AtomicLong();
+        final Thread[] drivers = new Thread[threads];
+
+        for (int t = 0; t < drivers.length; t++) {
+            final int id = t;
+
+            drivers[t] = new Thread("load-driver-" + t) {
+                @Override
+                public void run() {
+                    final Random random = new Random(id);
+                    // Each driver owns players id, id + threads, ...
+                    final int owned = (players - id + threads - 1) / threads;
+
+                    while (owned > 0 && System.currentTimeMillis() < end) {
+                        final int i = id + threads * random.nextInt(owned);
+
+                        try {
+                            step(gs, sim[i], random, mix, commands, rooms);
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+
+                        if (think > 0)
+                            pause(think);
+                    }
+                }
+            };
+            drivers[t].start();
+        }
+
+        final long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.min(REPORT_INTERVAL,
+                    Math.max(1, end - System.currentTimeMillis())));
+            report(gs, System.currentTimeMillis() - start, errors.get());
+        }
+
+        for (final Thread d : drivers)
+            d.join();
+
+        for (final FakeGameServer.SimPlayer p : sim)
+            gs.leave(p);
+
+        cfg.delete();
+        System.exit(0); // Runs the room server's shutdown hook
+    }
+
+    // Perform one operation for a player
+    private static void step(final FakeGameServer gs,
+            final FakeGameServer.SimPlayer p, final Random random,
+            final int[] mix, final String[] commands, final int rooms)
+            throws room_not_found {
+        int r = random.nextInt(mix[0] + mix[1] + mix[2]);
+
+        if (!p.inRoom() || r < mix[0])
+            gs.enter(p, random.nextInt(rooms) - rooms / 2);
+        else if ((r -= mix[0]) < mix[1])
+            gs.command(p, commands[random.nextInt(commands.length)]);
+        else
+            gs.leave(p);
+    }
+
+    // Print the latency percentiles of every operation
+    private static void report(final FakeGameServer gs, final long elapsed,
+            final long errors) {
+        System.out.println(String.format(Locale.ROOT,
+                "%n%.0f s: %d messages, %d moves, %d errors", elapsed / 1000.0,
+                gs.messages.get(), gs.moves.get(), errors));
+        System.out.println(String.format(Locale.ROOT,
+                "%-16s %10s %10s %10s %10s %10s  %s", "Operation", "Count",
+                "p50", "p99", "p999", "Max", "Units"));
+
+        for (final String op : FakeGameServer.OPERATIONS) {
+            final Histogram h = gs.latency(op);
+
+            System.out.println(String.format(Locale.ROOT,
+                    "%-16s %10d %10.1f %10.1f %10.1f %10.1f  %s", op,
+                    h.count(), h.percentile(50) / 1000.0,
+                    h.percentile(99) / 1000.0, h.percentile(99.9) / 1000.0,
+                    h.max() / 1000.0, "us"));
+        }
+    }
+
+    // Parse a workload mix, returning the enter, command and leave weights
+    private static int[] mix(final String spec) {
+        final int[] weights = new int[3];
+
+        for (final String part : spec.split(",")) {
+            final String[] kv = part.split(":");
+            final int w = Integer.parseInt(kv[1].trim());
+
+            switch (kv[0].trim()) {
+            case "enter":
+                weights[0] = w;
+                break;
+            case "command":
+                weights[1] = w;
+                break;
+            case "leave":
+                weights[2] = w;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation '"
+                        + kv[0] + "' in mix");
+            }
+        }
+
+        if (weights[0] + weights[1] + weights[2] <= 0)
+            throw new IllegalArgumentException("Empty workload mix");
+
+        return weights;
+    }
+
+    // Copy a configuration, replacing its game server host
+    private static File hostConfig(final File config, final String host)
+            throws Exception {
+        final String xml = new String(Files.readAllBytes(config.toPath()),
+                UTF8);
+        final File copy = File.createTempFile("load", ".xml");
+
+        Files.write(copy.toPath(), xml.replaceFirst("<host>[^<]*</host>",
+                "<host>" + host + "</host>").getBytes(UTF8));
+
+        return copy;
+    }
+
+    // Return the value of a name=value option
+    private static String option(final String[] args, final String name,
+            final String defaultValue) {
+        for (final String arg : args) {
+            if (arg.startsWith(name + "="))
+                return arg.substring(name.length() + 1);
+        }
+
+        return defaultValue;
+    }
+
+    private static void pause(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package adventure.bench;
+
+import java.io.OutputStream;
+
+import adventure.AsyncLogger;
+import adventure.SystemIO;
+
+/**
+ * Measures the cost of a log call to the caller. When enabled, messages are
+ * queued on an asynchronous logger whose output is discarded, so the flusher
+ * thread keeps up without writing to the console. When disabled, the cost is
+ * that of a SystemIO.log() call below the log level.
+ * 
+ * @author Chris Cummins
+ */
+public class LoggingBenchmark extends Benchmark {
+
+    private final boolean enabled;
+
+    private AsyncLogger logger;
+
+    /**
+     * Create a logging benchmark.
+     * 
+     * @param enabled
+     *            If true, benchmark queued messages, else discarded messages.
+     */
+    public LoggingBenchmark(final boolean enabled) {
+        super(enabled ? "log.enabled" : "log.disabled");
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void setUp() {
+        final OutputStream discard = new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        };
+
+        logger = new AsyncLogger(8192, AsyncLogger.Overflow.BLOCK, discard,
+                discard);
+        SystemIO.setLevel(SystemIO.Level.WARNING);
+    }
+
+    @Override
+    public void tearDown() {
+        logger.close();
+    }
+
+    @Override
+    public long run(final long n) {
+        long count = 0;
+
+        if (enabled) {
+            for (long i = 0; i < n; i++) {
+                if (logger.offer(false, " OK:      ", "Generating room", null))
+                    count++;
+            }
+        } else {
+            for (long i = 0; i < n; i++)
+                SystemIO.log("Generating room");
+        }
+
+        return count;
+    }
+}
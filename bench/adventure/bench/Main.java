@@ -0,0 +1,93 @@
+package adventure.bench;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import adventure.Dispatcher;
+
+/**
+ * The benchmark runner. Runs every benchmark whose name contains one of the
+ * given arguments, or all benchmarks if no arguments are given. Results are
+ * also written as CSV if "-csv" and a file name are given, e.g.
+ * 
+ * <pre>
+ * java adventure.bench.Main -csv results.csv command. log.
+ * </pre>
+ * 
+ * @author Chris Cummins
+ */
+public abstract class Main {
+
+    private static Benchmark[] benchmarks() {
+        return new Benchmark[] { new DispatchBenchmark(false),
+                new DispatchBenchmark(true),
+                new CommandBenchmark("help", "help"),
+                new CommandBenchmark("description", "description"),
+                new CommandBenchmark("go", "go north"),
+                new CommandBenchmark("say", "say hello"),
+                new CommandBenchmark("shout", "shout hello"),
+                new CommandBenchmark("take", "take 1"),
+                new CommandBenchmark("release", "release 1"),
+                new CommandBenchmark("dragon", "show me a dragon"),
+                new CommandBenchmark("unrecognised", "dance"),
+                new FindRoomBenchmark(1), new FindRoomBenchmark(8),
+                new RoomFactoryBenchmark(), new ConfigBenchmark(),
+                new LoggingBenchmark(true), new LoggingBenchmark(false),
+                new MazeFootprintBenchmark(1000000),
+                new MazeFootprintBenchmark(10000000),
+                new SnapshotBenchmark(1000000),
+                new ExecutionBenchmark(Dispatcher.Mode.ORB),
+                new ExecutionBenchmark(Dispatcher.Mode.EXECUTOR) };
+    }
+
+    /**
+     * Run the benchmarks.
+     * 
+     * @param args
+     *            An optional "-csv file" pair, followed by optional benchmark
+     *            name filters.
+     */
+    public static void main(String[] args) throws Exception {
+        final Harness harness = new Harness(5, 5, 1000, System.out);
+        final ArrayList<String> filters = new ArrayList<String>();
+        PrintStream csv = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-csv") && i + 1 < args.length)
+                csv = new PrintStream(new FileOutputStream(args[++i]));
+            else
+                filters.add(args[i]);
+        }
+
+        if (csv != null)
+            harness.csv(csv);
+        harness.header();
+
+        try {
+            for (final Benchmark b : benchmarks()) {
+                if (selected(b, filters))
+                    harness.run(b);
+            }
+        } finally {
+            if (csv != null)
+                csv.close();
+        }
+
+        System.exit(0); // Benchmarks may leave non-daemon threads behind
+    }
+
+    // Whether a benchmark matches the name filters
+    private static boolean selected(final Benchmark b,
+            final ArrayList<String> filters) {
+        if (filters.isEmpty())
+            return true;
+
+        for (final String f : filters) {
+            if (b.name().contains(f))
+                return true;
+        }
+
+        return false;
+    }
+}
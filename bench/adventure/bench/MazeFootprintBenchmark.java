@@ -0,0 +1,108 @@
+package adventure.bench;
+
+import java.util.Locale;
+import java.util.Random;
+
+import adventure.MazeGeometry;
+import adventure.Room;
+import adventure.RoomImpl;
+import adventure.RoomRegistry;
+
+/**
+ * Measures the memory used by a maze of a given size, and the cost of looking
+ * up built rooms. The heap used per room is reported for an empty maze, for a
+ * maze in which a fraction of the rooms have been visited, and for the room
+ * servants themselves.
+ * 
+ * @author Chris Cummins
+ */
+public class MazeFootprintBenchmark extends Benchmark {
+
+    // Fraction of rooms visited
+    private static final double VISITED = 0.001;
+
+    // Number of room servants built to measure their size
+    private static final int SERVANTS = 10000;
+
+    private final int side;
+
+    private RoomRegistry<Room> registry;
+    private int[] visited;
+
+    /**
+     * Create a maze footprint benchmark.
+     * 
+     * @param rooms
+     *            The approximate number of rooms in the maze.
+     */
+    public MazeFootprintBenchmark(final int rooms) {
+        super("maze.footprint.1e" + Math.round(Math.log10(rooms)));
+        this.side = (int) Math.sqrt(rooms);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        final MazeGeometry geometry = new MazeGeometry(side, side);
+        final RoomRegistry.Builder<Room> builder = new RoomRegistry.Builder<Room>() {
+            @Override
+            public Room build(final int n) {
+                return new StubRoom(n);
+            }
+        };
+        final Random random = new Random(0);
+
+        long before = usedHeap();
+        registry = new RoomRegistry<Room>(geometry.min, geometry.max);
+        report("empty maze", usedHeap() - before, geometry.rooms());
+
+        visited = new int[(int) (geometry.rooms() * VISITED)];
+        for (int i = 0; i < visited.length; i++) {
+            visited[i] = geometry.min + random.nextInt(geometry.rooms());
+            registry.get(visited[i], builder);
+        }
+        report("registry, " + (VISITED * 100) + "% visited",
+                registry.footprint(), geometry.rooms());
+
+        final RoomFixture fixture = new RoomFixture(new StubRoomServer(),
+                geometry);
+        final RoomImpl[] servants = new RoomImpl[SERVANTS];
+
+        before = usedHeap();
+        for (int i = 0; i < servants.length; i++)
+            servants[i] = fixture.room(i);
+        report("room servant", usedHeap() - before, servants.length);
+
+        fixture.shutdown(1000);
+    }
+
+    @Override
+    public long run(final long n) throws Exception {
+        long count = 0;
+
+        for (long i = 0; i < n; i++) {
+            if (registry.peek(visited[(int) (i % visited.length)]) != null)
+                count++;
+        }
+
+        return count;
+    }
+
+    // Print the memory used per room
+    private void report(final String what, final long bytes, final int rooms) {
+        System.out.println(String.format(Locale.ROOT,
+                "# %s: %s: %.2f bytes per room (%d rooms)", name(), what,
+                (double) bytes / rooms, rooms));
+    }
+
+    // Return the heap in use after garbage collection
+    private static long usedHeap() throws InterruptedException {
+        final Runtime r = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        return r.totalMemory() - r.freeMemory();
+    }
+}
@@ -0,0 +1,350 @@
+package adventure.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omg.CORBA.ORB;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.POAHelper;
+
+import adventure.Histogram;
+import adventure.RoomID;
+
+/**
+ * Tests a partitioned maze on one machine. A FakeGameServer is started, and
+ * one room server is started in its own JVM for each region of the maze, each
+ * registering with the fake as its own user through a copy of the
+ * configuration. Simulated players then walk from room 0 of the south west
+ * region across every region boundary in turn, east, north, west and south,
+ * and the time taken by each move between regions is reported. Options are
+ * given as name=value arguments:<br/>
+ * <br/>
+ *
+ * <pre>
+ * config=adventure.xml   configuration to copy for each room server
+ * regions=2x2            columns x rows of regions
+ * width=20               width of the whole maze
+ * height=20              height of the whole maze
+ * players=16             number of simulated players
+ * timeout=10             maximum time to wait for each move, in seconds
+ * log=warning            room server log level
+ * </pre>
+ *
+ * The exit status is 0 if every player completed the walk.
+ *
+ * @author Chris Cummins
+ */
+public abstract class PartitionTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Maximum time to wait for the room servers to register, in milliseconds
+    private static final long REGISTRATION_TIMEOUT = 60000;
+
+    // Maximum time to wait for a room server to shut down, in milliseconds
+    private static final long SHUTDOWN_TIMEOUT = 30000;
+
+    /**
+     * Run a partitioned maze test.
+     *
+     * @param args
+     *            Options, as name=value pairs.
+     */
+    public static void main(String[] args) throws Exception {
+        final String config = option(args, "config", "adventure.xml");
+        final String[] regions = option(args, "regions", "2x2").split("x");
+        final int columns = Integer.parseInt(regions[0].trim());
+        final int rows = Integer.parseInt(regions[1].trim());
+        final int width = Integer.parseInt(option(args, "width", "20"));
+        final int height = Integer.parseInt(option(args, "height", "20"));
+        final int players = Integer.parseInt(option(args, "players", "16"));
+        final long timeout = Long.parseLong(option(args, "timeout", "10"))
+                * 1000;
+        final String log = option(args, "log", "warning");
+
+        // Start the game server
+        final ORB orb = ORB.init(new String[0], null);
+        final POA poa = POAHelper.narrow(orb
+                .resolve_initial_references("RootPOA"));
+        poa.the_POAManager().activate();
+
+        final FakeGameServer gs = new FakeGameServer(poa);
+        final String ior = orb.object_to_string(gs._this(orb));
+
+        final Thread server = new Thread("game-server") {
+            @Override
+            public void run() {
+                orb.run();
+            }
+        };
+        server.setDaemon(true);
+        server.start();
+
+        // Start a room server for each region
+        final String[] users = new String[columns * rows];
+        for (int i = 0; i < users.length; i++)
+            users[i] = "region" + i;
+
+        final File dir = Files.createTempDirectory("partition").toFile();
+        final Process[] nodes = new Process[users.length];
+        boolean passed = false;
+
+        // Kill the room servers if the test is stopped
+        final Thread killer = new Thread("partition-killer") {
+            @Override
+            public void run() {
+                kill(nodes);
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(killer);
+
+        try {
+            for (int i = 0; i < nodes.length; i++)
+                nodes[i] = node(nodeConfig(new File(config), dir, ior, users,
+                        i, width, height, columns, rows, log), new File(dir,
+                        users[i] + ".sav"));
+
+            if (!gs.awaitRegistration(users.length, REGISTRATION_TIMEOUT))
+                throw new IllegalStateException(
+                        "Room servers did not register");
+
+            passed = walk(gs, route(users, columns, rows), players,
+                    (width / columns) * (height / rows), timeout);
+        } finally {
+            for (final Process node : nodes) {
+                if (node != null)
+                    node.destroy(); // Runs the room server's shutdown hook
+            }
+            for (final Process node : nodes) {
+                if (node != null)
+                    node.waitFor(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+
+            kill(nodes);
+            Runtime.getRuntime().removeShutdownHook(killer);
+            delete(dir);
+        }
+
+        System.exit(passed ? 0 : 1);
+    }
+
+    // Forcibly stop any room servers still running
+    private static void kill(final Process[] nodes) {
+        for (final Process node : nodes) {
+            if (node != null && node.isAlive())
+                node.destroyForcibly();
+        }
+    }
+
+    // The legs of a walk across the region boundaries around the south west
+    // corner, ending where it starts
+    private static List<Leg> route(final String[] users, final int columns,
+            final int rows) {
+        final List<Leg> legs = new ArrayList<Leg>();
+        final String[] directions = { "east", "north", "west", "south" };
+        final int[][] moves = { { 1, 0 }, { 0, 1 }, { -1, 0 }, { 0, -1 } };
+        int column = 0, row = 0;
+
+        for (int d = 0; d < directions.length; d++) {
+            final int c = column + moves[d][0], r = row + moves[d][1];
+
+            if (c >= 0 && c < columns && r >= 0 && r < rows) {
+                legs.add(new Leg(users[row * columns + column],
+                        directions[d], users[r * columns + c]));
+                column = c;
+                row = r;
+            }
+        }
+
+        if (legs.isEmpty())
+            throw new IllegalArgumentException("The maze has one region");
+
+        return legs;
+    }
+
+    // Walk every player along the route, returning true if all completed it
+    private static boolean walk(final FakeGameServer gs, final List<Leg> legs,
+            final int players, final int steps, final long timeout)
+            throws InterruptedException {
+        final AtomicLong errors = new AtomicLong();
+        final Thread[] walkers = new Thread[players];
+        final long start = System.currentTimeMillis();
+
+        for (int t = 0; t < walkers.length; t++) {
+            final FakeGameServer.SimPlayer p = gs.player("walker" + t);
+
+            walkers[t] = new Thread("partition-walker-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        gs.enter(p, legs.get(0).from, 0);
+
+                        for (final Leg leg : legs)
+                            leg.walk(gs, p, steps, timeout);
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                        System.out.println("# " + p.user_name() + ": " + e);
+                    } finally {
+                        gs.leave(p);
+                    }
+                }
+            };
+            walkers[t].start();
+        }
+
+        for (final Thread w : walkers)
+            w.join();
+
+        System.out.println(String.format(Locale.ROOT,
+                "%n%.1f s: %d players, %d moves, %d errors",
+                (System.currentTimeMillis() - start) / 1000.0, players,
+                gs.moves.get(), errors.get()));
+        System.out.println(String.format(Locale.ROOT,
+                "%-24s %10s %10s %10s %10s  %s", "Crossing", "Count", "p50",
+                "p99", "Max", "Units"));
+
+        for (final Leg leg : legs) {
+            final Histogram h = leg.crossings;
+
+            System.out.println(String.format(Locale.ROOT,
+                    "%-24s %10d %10.1f %10.1f %10.1f  %s", leg.direction
+                            + " to " + leg.to, h.count(),
+                    h.percentile(50) / 1000000.0,
+                    h.percentile(99) / 1000000.0, h.max() / 1000000.0, "ms"));
+        }
+
+        return errors.get() == 0;
+    }
+
+    // Start a room server in its own JVM
+    private static Process node(final File config, final File save)
+            throws IOException {
+        final String java = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+
+        return new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"), "adventure.Main",
+                config.getPath(), save.getPath()).inheritIO().start();
+    }
+
+    // Copy a configuration, for the room server of one region
+    private static File nodeConfig(final File config, final File dir,
+            final String host, final String[] users, final int region,
+            final int width, final int height, final int columns,
+            final int rows, final String log) throws IOException {
+        final StringBuilder servers = new StringBuilder();
+        for (final String user : users)
+            servers.append(servers.length() > 0 ? " " : "").append(user);
+
+        final String xml = new String(Files.readAllBytes(config.toPath()),
+                UTF8)
+                .replaceFirst("<host>[^<]*</host>", "<host>" + host + "</host>")
+                .replaceFirst("<user>[^<]*</user>",
+                        "<user>" + users[region] + "</user>")
+                .replaceFirst("<width>[^<]*</width>",
+                        "<width>" + width + "</width>")
+                .replaceFirst("<height>[^<]*</height>",
+                        "<height>" + height + "</height>")
+                .replaceFirst("</maze>", "<regions>" + columns + "x" + rows
+                        + "</regions><servers>" + servers + "</servers></maze>")
+                .replaceFirst("<log-level>[^<]*</log-level>",
+                        "<log-level>" + log + "</log-level>");
+        final File copy = new File(dir, users[region] + ".xml");
+
+        Files.write(copy.toPath(), xml.getBytes(UTF8));
+
+        return copy;
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+
+        if (children != null) {
+            for (final File child : children)
+                delete(child);
+        }
+
+        file.delete();
+    }
+
+    // Return the value of a name=value option
+    private static String option(final String[] args, final String name,
+            final String defaultValue) {
+        for (final String arg : args) {
+            if (arg.startsWith(name + "="))
+                return arg.substring(name.length() + 1);
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * One leg of a walk: moving in one direction until entering a region.
+     */
+    private static final class Leg {
+
+        final String from;
+        final String direction;
+        final String to;
+
+        // Time of each move into the region, in nanoseconds
+        final Histogram crossings = new Histogram();
+
+        Leg(final String from, final String direction, final String to) {
+            this.from = from;
+            this.direction = direction;
+            this.to = to;
+        }
+
+        // Move a player until they enter the region, or fail
+        void walk(final FakeGameServer gs, final FakeGameServer.SimPlayer p,
+                final int steps, final long timeout) throws Exception {
+            for (int i = 0; i < steps; i++) {
+                final RoomID before = p.location();
+                final long start = System.nanoTime();
+
+                gs.command(p, "go " + direction);
+
+                final RoomID after = await(p, before, timeout);
+                if (after.user_name.equals(to)) {
+                    crossings.record(System.nanoTime() - start);
+                    return;
+                } else if (!after.user_name.equals(before.user_name)) {
+                    throw new IllegalStateException("Moved " + direction
+                            + " from " + before.user_name + " to "
+                            + after.user_name + ", not " + to);
+                }
+            }
+
+            throw new IllegalStateException("Did not reach " + to + " going "
+                    + direction + " in " + steps + " moves");
+        }
+
+        // Wait for a player to leave a room
+        private static RoomID await(final FakeGameServer.SimPlayer p,
+                final RoomID room, final long timeout)
+                throws InterruptedException {
+            final long end = System.currentTimeMillis() + timeout;
+
+            while (System.currentTimeMillis() < end) {
+                final RoomID now = p.location();
+
+                if (now.room_number != room.room_number
+                        || !now.user_name.equals(room.user_name))
+                    return now;
+
+                Thread.sleep(1);
+            }
+
+            throw new IllegalStateException("Timed out in room "
+                    + room.room_number + " of " + room.user_name);
+        }
+    }
+}
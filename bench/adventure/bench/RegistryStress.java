@@ -0,0 +1,91 @@
+package adventure.bench;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import adventure.Room;
+import adventure.RoomRegistry;
+
+/**
+ * Races many threads to request every room of a fresh registry, and checks
+ * that each room is built exactly once, and that every thread receives the
+ * same room object.
+ * 
+ * @author Chris Cummins
+ */
+public class RegistryStress extends StressTest {
+
+    private static final int ROOMS = 10000;
+    private static final int ROUNDS = 20;
+
+    public RegistryStress() {
+        super("registry.build-once");
+    }
+
+    @Override
+    public void run() throws Exception {
+        for (int round = 0; round < ROUNDS; round++)
+            round();
+    }
+
+    // Race every thread over a fresh registry
+    private void round() throws Exception {
+        final int min = -ROOMS / 2, max = ROOMS / 2;
+        final RoomRegistry<Room> registry = new RoomRegistry<Room>(min, max);
+        final AtomicIntegerArray builds = new AtomicIntegerArray(ROOMS + 1);
+        final AtomicReferenceArray<Room> seen = new AtomicReferenceArray<Room>(
+                ROOMS + 1);
+        final Thread[] threads = new Thread[threads()];
+        final CyclicBarrier start = new CyclicBarrier(threads.length);
+        final Throwable[] error = new Throwable[1];
+
+        final RoomRegistry.Builder<Room> builder = new RoomRegistry.Builder<Room>() {
+            @Override
+            public Room build(final int n) {
+                builds.incrementAndGet(n - min);
+                Thread.yield(); // Widen the race window
+                return new StubRoom(n);
+            }
+        };
+
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 7919; // Each thread starts elsewhere
+
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+
+                        for (int i = 0; i <= ROOMS; i++) {
+                            final int n = min + (offset + i) % (ROOMS + 1);
+                            final Room room = registry.get(n, builder);
+
+                            if (!seen.compareAndSet(n - min, null, room))
+                                check(seen.get(n - min) == room, "Room " + n
+                                        + " returned two different objects");
+                        }
+                    } catch (Throwable e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (final Thread t : threads)
+            t.join();
+
+        if (error[0] instanceof AssertionError)
+            throw (AssertionError) error[0];
+        else if (error[0] != null)
+            throw new Exception(error[0]);
+
+        for (int i = 0; i <= ROOMS; i++)
+            check(builds.get(i) == 1, "Room " + (min + i) + " built "
+                    + builds.get(i) + " times");
+    }
+}
@@ -0,0 +1,65 @@
+package adventure.bench;
+
+import java.util.Random;
+
+import adventure.Config;
+import adventure.Dispatcher;
+import adventure.MazeGeometry;
+import adventure.Outbox;
+import adventure.RoomFactory;
+import adventure.SystemIO;
+
+/**
+ * Measures the time to generate a room servant with RoomFactory.next(), for
+ * random rooms of the configured maze.
+ * 
+ * @author Chris Cummins
+ */
+public class RoomFactoryBenchmark extends Benchmark {
+
+    // Number of distinct rooms generated
+    private static final int ROOMS = 1 << 12;
+
+    private StubRoomServer rs;
+    private Outbox outbox;
+    private RoomFactory factory;
+    private int[] rooms;
+
+    public RoomFactoryBenchmark() {
+        super("factory.next");
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        final Config cfg = new Config(CONFIG);
+        final MazeGeometry geometry = new MazeGeometry(cfg.getMazeWidth(),
+                cfg.getMazeHeight());
+        final Random random = new Random(0);
+
+        SystemIO.setLevel(SystemIO.Level.WARNING); // Logs every room
+
+        rs = new StubRoomServer();
+        outbox = new Outbox(1, 1, 0, 0);
+        factory = new RoomFactory(cfg, outbox, new Dispatcher(
+                Dispatcher.Mode.ORB, 1, 1), geometry);
+
+        rooms = new int[ROOMS];
+        for (int i = 0; i < rooms.length; i++)
+            rooms[i] = geometry.min + random.nextInt(geometry.rooms());
+    }
+
+    @Override
+    public void tearDown() {
+        outbox.shutdown(1000);
+    }
+
+    @Override
+    public long run(final long n) {
+        long count = 0;
+
+        for (long i = 0; i < n; i++)
+            count += factory.next(rs, rooms[(int) i & (ROOMS - 1)]).no;
+
+        return count;
+    }
+}
@@ -0,0 +1,91 @@
+package adventure.bench;
+
+import java.util.concurrent.Executor;
+
+import adventure.Dispatcher;
+import adventure.MazeGeometry;
+import adventure.Outbox;
+import adventure.rooms.DungeonRoom;
+
+/**
+ * The objects rooms need in order to be benchmarked or stressed without a
+ * network or ORB: a stub game server, an outbox delivering to it, and a maze
+ * geometry.
+ *
+ * @author Chris Cummins
+ */
+public class RoomFixture {
+
+    public static final String USER = "bench";
+    public static final String DESCRIPTION = "A benchmark room.";
+
+    public final StubRoomServer rs;
+    public final Outbox outbox;
+    public final MazeGeometry geometry;
+
+    /**
+     * Create a fixture for a 10x10 maze.
+     */
+    public RoomFixture() {
+        this(new StubRoomServer());
+    }
+
+    /**
+     * Create a fixture for a 10x10 maze with a given game server.
+     *
+     * @param rs
+     *            The stub game server.
+     */
+    public RoomFixture(final StubRoomServer rs) {
+        this(rs, new MazeGeometry(10, 10));
+    }
+
+    /**
+     * Create a fixture with a given game server and maze geometry.
+     *
+     * @param rs
+     *            The stub game server.
+     * @param geometry
+     *            The maze geometry shared by all rooms.
+     */
+    public RoomFixture(final StubRoomServer rs, final MazeGeometry geometry) {
+        this.rs = rs;
+        this.outbox = new Outbox(2, 65536, 0, 0);
+        this.geometry = geometry;
+    }
+
+    /**
+     * Create a room which runs its callbacks inline.
+     *
+     * @param n
+     *            The room number.
+     * @return A new room.
+     */
+    public DungeonRoom room(final int n) {
+        return room(n, Dispatcher.INLINE);
+    }
+
+    /**
+     * Create a room which runs its callbacks on a given executor.
+     *
+     * @param n
+     *            The room number.
+     * @param executor
+     *            The executor to run callbacks on.
+     * @return A new room.
+     */
+    public DungeonRoom room(final int n, final Executor executor) {
+        return new DungeonRoom(n, USER, DESCRIPTION, rs, outbox, executor,
+                geometry);
+    }
+
+    /**
+     * Stop the outbox, waiting for queued messages to be delivered.
+     *
+     * @param timeout
+     *            The maximum time to wait, in milliseconds.
+     */
+    public void shutdown(final long timeout) {
+        outbox.shutdown(timeout);
+    }
+}
@@ -0,0 +1,98 @@
+package adventure.bench;
+
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+import adventure.SystemIO;
+import adventure.rooms.DungeonRoom;
+
+/**
+ * Races many threads entering, leaving and sending commands to a single room,
+ * and checks that no callback fails, and that the room's membership matches
+ * the last move made by every player.
+ * 
+ * @author Chris Cummins
+ */
+public class RoomStress extends StressTest {
+
+    private static final int PLAYERS = 8; // Per thread
+    private static final int MOVES = 5000; // Per thread
+
+    private static final String[] commands = new String[] { "say hello",
+            "help", "description", "dance" };
+
+    public RoomStress() {
+        super("room.enter-leave-command");
+    }
+
+    @Override
+    public void run() throws Exception {
+        final RoomFixture fixture = new RoomFixture();
+        final DungeonRoom room = fixture.room(1);
+        final Thread[] threads = new Thread[threads()];
+        final StubPlayer[][] players = new StubPlayer[threads.length][PLAYERS];
+        final boolean[][] inside = new boolean[threads.length][PLAYERS];
+        final CyclicBarrier start = new CyclicBarrier(threads.length);
+        final Throwable[] error = new Throwable[1];
+
+        SystemIO.setLevel(SystemIO.Level.WARNING); // Callbacks log every move
+
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+
+            for (int i = 0; i < PLAYERS; i++)
+                players[t][i] = new StubPlayer("p" + t + "." + i, "Player "
+                        + t + "." + i, room.id);
+
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    final Random random = new Random(id);
+
+                    try {
+                        start.await();
+
+                        for (int m = 0; m < MOVES; m++) {
+                            final int i = random.nextInt(PLAYERS);
+                            final StubPlayer p = players[id][i];
+
+                            if (inside[id][i])
+                                room.player_left(p);
+                            else
+                                room.player_entered(p);
+                            inside[id][i] = !inside[id][i];
+
+                            room.send_command(players[id][random
+                                    .nextInt(PLAYERS)], commands[m
+                                    % commands.length]);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (final Thread t : threads)
+            t.join();
+        fixture.shutdown(5000);
+        SystemIO.setLevel(SystemIO.Level.OK);
+
+        if (error[0] instanceof AssertionError)
+            throw (AssertionError) error[0];
+        else if (error[0] != null)
+            throw new Exception(error[0]);
+
+        for (int t = 0; t < threads.length; t++) {
+            for (int i = 0; i < PLAYERS; i++)
+                check(room.hasPlayer(players[t][i]) == inside[t][i], "Player "
+                        + t + "." + i + " should "
+                        + (inside[t][i] ? "" : "not ") + "be in the room");
+        }
+
+        check(fixture.rs.messages.get() > 0, "No messages were delivered");
+    }
+}
@@ -0,0 +1,82 @@
+package adventure.bench;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.Random;
+
+import adventure.MazeGeometry;
+import adventure.Room;
+import adventure.RoomRegistry;
+import adventure.RoomState;
+import adventure.Snapshot;
+
+/**
+ * Measures the time to restore a saved maze: reading and checking a snapshot
+ * file, and marking its visited rooms in a fresh room registry. Each operation
+ * is one complete restore.
+ * 
+ * @author Chris Cummins
+ */
+public class SnapshotBenchmark extends Benchmark {
+
+    // Fraction of rooms visited
+    private static final double VISITED = 0.1;
+
+    private final int side;
+
+    private MazeGeometry geometry;
+    private File file;
+
+    /**
+     * Create a snapshot benchmark.
+     * 
+     * @param rooms
+     *            The approximate number of rooms in the maze.
+     */
+    public SnapshotBenchmark(final int rooms) {
+        super("snapshot.restore.1e" + Math.round(Math.log10(rooms)));
+        this.side = (int) Math.sqrt(rooms);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        final Random random = new Random(0);
+        final String[] descriptions = new String[100];
+        final BitSet visited = new BitSet();
+
+        geometry = new MazeGeometry(side, side);
+
+        for (int i = 0; i < descriptions.length; i++)
+            descriptions[i] = "A benchmark room, number " + i + ".";
+        for (int i = 0; i < geometry.rooms() * VISITED; i++)
+            visited.set(random.nextInt(geometry.rooms()));
+
+        file = File.createTempFile("adventure", ".sav");
+        new Snapshot(0, side, side, descriptions, visited,
+                new RoomState[0]).write(file);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Override
+    public long run(final long n) throws Exception {
+        long count = 0;
+
+        for (long i = 0; i < n; i++) {
+            final Snapshot s = Snapshot.read(file);
+            final RoomRegistry<Room> registry = new RoomRegistry<Room>(
+                    geometry.min, geometry.max);
+
+            for (int j = s.visited.nextSetBit(0); j >= 0; j = s.visited
+                    .nextSetBit(j + 1))
+                registry.mark(geometry.min + j, RoomRegistry.VISITED);
+
+            count += registry.state(geometry.min);
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,59 @@
+package adventure.bench;
+
+/**
+ * The stress test runner. Runs every stress test whose name contains one of
+ * the given arguments, or all tests if no arguments are given, and exits with
+ * a non-zero status if any test fails.
+ * 
+ * @author Chris Cummins
+ */
+public abstract class Stress {
+
+    private static StressTest[] tests() {
+        return new StressTest[] { new RegistryStress(), new JournalStress(),
+                new RoomStress(), new GameStress() };
+    }
+
+    /**
+     * Run the stress tests.
+     * 
+     * @param args
+     *            Optional test name filters.
+     */
+    public static void main(String[] args) {
+        int failures = 0;
+
+        for (final StressTest t : tests()) {
+            if (!selected(t, args))
+                continue;
+
+            final long start = System.nanoTime();
+
+            try {
+                t.run();
+                System.out.println(String.format("%-40s PASS %8d ms",
+                        t.name(), (System.nanoTime() - start) / 1000000));
+            } catch (Throwable e) {
+                failures++;
+                System.out.println(String.format("%-40s FAIL %s", t.name(),
+                        e.getMessage()));
+                e.printStackTrace();
+            }
+        }
+
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    // Whether a test matches the name filters
+    private static boolean selected(final StressTest t, final String[] filters) {
+        if (filters.length == 0)
+            return true;
+
+        for (final String f : filters) {
+            if (t.name().contains(f))
+                return true;
+        }
+
+        return false;
+    }
+}
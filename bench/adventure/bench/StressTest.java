@@ -0,0 +1,62 @@
+package adventure.bench;
+
+/**
+ * A multi-threaded stress test. Unlike a benchmark, a stress test checks an
+ * invariant, and fails by throwing an error if it is ever broken.
+ * 
+ * @author Chris Cummins
+ */
+public abstract class StressTest {
+
+    private final String name;
+
+    /**
+     * Create a named stress test.
+     * 
+     * @param name
+     *            The test name, as printed in results.
+     */
+    protected StressTest(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Return the test name.
+     * 
+     * @return Test name.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Run the test.
+     * 
+     * @throws Exception
+     *             If the test fails, or in case of error.
+     */
+    public abstract void run() throws Exception;
+
+    /**
+     * Fail the test if a condition does not hold.
+     * 
+     * @param condition
+     *            The invariant to check.
+     * @param message
+     *            The failure message.
+     */
+    protected static void check(final boolean condition, final String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * Return the number of threads to use for a test, which is at least twice
+     * the number of processors.
+     * 
+     * @return Thread count.
+     */
+    protected static int threads() {
+        return Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    }
+}
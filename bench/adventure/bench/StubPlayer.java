@@ -0,0 +1,53 @@
+package adventure.bench;
+
+import org.omg.CORBA.portable.ObjectImpl;
+
+import adventure.Player;
+import adventure.PlayerHelper;
+import adventure.RoomID;
+
+/**
+ * A local player object, which stands in for a remote player reference
+ * without requiring an ORB.
+ * 
+ * @author Chris Cummins
+ */
+public class StubPlayer extends ObjectImpl implements Player {
+
+    private static final long serialVersionUID = 4409874310123456081L;
+
+    private final String userName;
+    private final String realName;
+    private final RoomID location;
+
+    public StubPlayer(final String userName, final String realName,
+            final RoomID location) {
+        this.userName = userName;
+        this.realName = realName;
+        this.location = location;
+    }
+
+    @Override
+    public String[] _ids() {
+        return new String[] { PlayerHelper.id() };
+    }
+
+    @Override
+    public String user_name() {
+        return userName;
+    }
+
+    @Override
+    public String real_name() {
+        return realName;
+    }
+
+    @Override
+    public RoomID location() {
+        return location;
+    }
+
+    @Override
+    public void ping() {
+    }
+}
@@ -0,0 +1,54 @@
+package adventure.bench;
+
+import org.omg.CORBA.portable.ObjectImpl;
+
+import adventure.Item;
+import adventure.Player;
+import adventure.Room;
+import adventure.RoomHelper;
+
+/**
+ * A local room reference, which stands in for a room object reference without
+ * requiring an ORB. All operations are ignored.
+ * 
+ * @author Chris Cummins
+ */
+public class StubRoom extends ObjectImpl implements Room {
+
+    private static final long serialVersionUID = -6150473419386154722L;
+
+    public final int no;
+
+    public StubRoom(final int no) {
+        this.no = no;
+    }
+
+    @Override
+    public String[] _ids() {
+        return new String[] { RoomHelper.id() };
+    }
+
+    @Override
+    public void player_entered(final Player p) {
+    }
+
+    @Override
+    public void player_left(final Player p) {
+    }
+
+    @Override
+    public void item_added(final Item i) {
+    }
+
+    @Override
+    public void item_removed(final Item i) {
+    }
+
+    @Override
+    public void send_command(final Player p, final String command) {
+    }
+
+    @Override
+    public void ping() {
+    }
+}
@@ -0,0 +1,88 @@
+package adventure.bench;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omg.CORBA.portable.ObjectImpl;
+
+import adventure.CBRoomServer;
+import adventure.CBRoomServerHelper;
+import adventure.ItemLocation;
+import adventure.Player;
+import adventure.RoomID;
+
+/**
+ * A local game server callback object, which counts the calls made against it
+ * and discards their contents, so that rooms can be benchmarked without a
+ * network or ORB. Moves may be given a latency, to model a game server which
+ * blocks its caller.
+ * 
+ * @author Chris Cummins
+ */
+public class StubRoomServer extends ObjectImpl implements CBRoomServer {
+
+    private static final long serialVersionUID = -2243787094361170337L;
+
+    public final AtomicLong messages = new AtomicLong();
+    public final AtomicLong broadcasts = new AtomicLong();
+    public final AtomicLong moves = new AtomicLong();
+
+    private final long moveLatency;
+
+    public StubRoomServer() {
+        this(0);
+    }
+
+    /**
+     * Create a stub server whose moves block for a given time.
+     * 
+     * @param moveLatency
+     *            Time each move_player() call blocks for, in milliseconds.
+     */
+    public StubRoomServer(final long moveLatency) {
+        this.moveLatency = moveLatency;
+    }
+
+    @Override
+    public String[] _ids() {
+        return new String[] { CBRoomServerHelper.id() };
+    }
+
+    @Override
+    public void unregister() {
+    }
+
+    @Override
+    public void send_message(final int room_number, final Player p,
+            final String[] message) {
+        messages.incrementAndGet();
+    }
+
+    @Override
+    public void broadcast_message(final int room_number, final String[] message) {
+        broadcasts.incrementAndGet();
+    }
+
+    @Override
+    public void move_player(final int room_number, final Player p,
+            final RoomID new_room) {
+        if (moveLatency > 0) {
+            try {
+                Thread.sleep(moveLatency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        moves.incrementAndGet();
+    }
+
+    @Override
+    public void move_item(final int room_number, final Player p, final int i,
+            final ItemLocation new_location) {
+        moves.incrementAndGet();
+    }
+
+    @Override
+    public void ping() {
+    }
+}
@@ -9,17 +9,31 @@ import adventure.Player;
  */
 public interface Action {
 
+    /**
+     * Return the command verbs which this action responds to. The verb is the
+     * first word of a command, e.g. "say" for the command "say Hello". Rooms
+     * use the verbs to dispatch each command directly to a single action.
+     * 
+     * @return An array of one or more verbs.
+     */
+    public String[] getVerbs();
+
     /**
      * Attempt to perform an action from the given command. If the action is
      * capable of processing the command, then this method will return true, and
      * may have side effects. Otherwise, it is expected that the method should
      * return false.
      * 
-     * @param cmd
-     *            The command string to process. E.g. "say Hello"
+     * @param p
+     *            The player who issued the command.
+     * @param verb
+     *            The command verb, as returned by getVerbs(). E.g. "say"
+     * @param args
+     *            The remainder of the command string, stripped of leading and
+     *            trailing whitespace. E.g. "Hello"
      * @return True if the action can process the command, else false.
      */
-    public boolean process(final Player p, final String cmd);
+    public boolean process(final Player p, final String verb, final String args);
 
     /**
      * Return a brief help text for the given action.
@@ -0,0 +1,414 @@
+package adventure;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The asynchronous backend of SystemIO. Log messages are placed into a bounded
+ * lock-free ring buffer, and written out by a single background flusher
+ * thread, so that threads which log never wait on console I/O. The flusher
+ * writes through its own buffered streams, and only flushes them once the ring
+ * buffer is empty.<br/>
+ * <br/>
+ *
+ * When the ring buffer is full, messages are either dropped or the logging
+ * thread blocks until there is space, depending on the overflow policy. Dropped
+ * messages are counted, and reported by the flusher once it catches up.<br/>
+ * <br/>
+ *
+ * The logger closes itself on JVM shutdown. Any messages logged after the
+ * flusher has stopped are written synchronously, so that messages from other
+ * shutdown hooks are not lost.
+ *
+ * @author Chris Cummins
+ */
+public final class AsyncLogger {
+
+    /**
+     * The behaviour of a logging thread when the ring buffer is full.
+     */
+    public enum Overflow {
+        /** Discard the message. */
+        DROP,
+        /** Wait for space in the ring buffer. */
+        BLOCK
+    }
+
+    // Time the flusher sleeps for when there is nothing to write
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // Time a blocked logging thread waits before retrying
+    private static final long BLOCKED_NANOS = TimeUnit.MICROSECONDS
+            .toNanos(50);
+
+    // Maximum time to wait for the flusher to stop, in milliseconds
+    private static final long CLOSE_TIMEOUT = 2000;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Ring buffer. The sequence of a slot is its position + 1 once it is
+    // written, and its position + capacity once it has been read.
+    private final Entry[] slots;
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Next position to claim
+    private long head; // Next position to read, owned by the flusher
+
+    private volatile long written; // Published copy of head
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+    private volatile Overflow overflow;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread flusher;
+
+    // Owned by the flusher, or by the closing thread once it has stopped
+    private final PrintStream out;
+    private final PrintStream err;
+    private final SimpleDateFormat format = new SimpleDateFormat(
+            "EEE MMM dd HH:mm:ss zzz yyyy", Locale.US); // As Date.toString()
+    private long stampSecond = -1;
+    private String stamp;
+
+    /**
+     * Create a logger which writes to the standard output and error streams,
+     * and start its flusher thread.
+     *
+     * @param capacity
+     *            The ring buffer size, which must be a power of two.
+     * @param overflow
+     *            The initial overflow policy.
+     */
+    public AsyncLogger(final int capacity, final Overflow overflow) {
+        this(capacity, overflow, new FileOutputStream(FileDescriptor.out),
+                new FileOutputStream(FileDescriptor.err));
+    }
+
+    /**
+     * Create a logger and start its flusher thread.
+     *
+     * @param capacity
+     *            The ring buffer size, which must be a power of two.
+     * @param overflow
+     *            The initial overflow policy.
+     * @param out
+     *            The stream for informational messages.
+     * @param err
+     *            The stream for warnings and errors.
+     */
+    public AsyncLogger(final int capacity, final Overflow overflow,
+            final OutputStream out, final OutputStream err) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException(
+                    "Log buffer size must be a power of two!");
+
+        this.slots = new Entry[capacity];
+        this.sequence = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.overflow = overflow;
+
+        for (int i = 0; i < capacity; i++)
+            sequence.set(i, i);
+
+        this.out = new PrintStream(new BufferedOutputStream(out, BUFFER_SIZE),
+                false);
+        this.err = new PrintStream(new BufferedOutputStream(err, BUFFER_SIZE),
+                false);
+
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread("log-close") {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Set the overflow policy.
+     *
+     * @param overflow
+     *            The behaviour when the ring buffer is full.
+     */
+    public void setOverflow(final Overflow overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * Queue a message for writing.
+     *
+     * @param error
+     *            True to write to standard error, else standard output.
+     * @param label
+     *            The message label, written between timestamp and message.
+     * @param message
+     *            The message.
+     * @param e
+     *            An exception whose stack trace is written after the message,
+     *            or null.
+     * @return False if the message was dropped.
+     */
+    public boolean offer(final boolean error, final String label,
+            final String message, final Throwable e) {
+        return enqueue(new Entry(System.currentTimeMillis(), error, label,
+                message, e), overflow == Overflow.BLOCK);
+    }
+
+    /**
+     * Queue a message for writing, waiting for space if the ring buffer is
+     * full, regardless of the overflow policy.
+     *
+     * @param error
+     *            True to write to standard error, else standard output.
+     * @param label
+     *            The message label, written between timestamp and message.
+     * @param message
+     *            The message.
+     * @param e
+     *            An exception whose stack trace is written after the message,
+     *            or null.
+     */
+    public void put(final boolean error, final String label,
+            final String message, final Throwable e) {
+        enqueue(new Entry(System.currentTimeMillis(), error, label, message,
+                e), true);
+    }
+
+    // Claim a slot and publish an entry to it
+    private boolean enqueue(final Entry entry, final boolean block) {
+        long pos = tail.get();
+
+        while (true) {
+            final int i = (int) pos & mask;
+            final long available = sequence.get(i) - pos;
+
+            if (available == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[i] = entry;
+                    sequence.set(i, pos + 1); // Publish
+                    break;
+                }
+                pos = tail.get();
+            } else if (available < 0) { // Full
+                if (!block) {
+                    dropped.incrementAndGet();
+                    return false;
+                } else if (closed) {
+                    drainClosed(); // Make space ourselves
+                } else {
+                    LockSupport.unpark(flusher);
+                    LockSupport.parkNanos(this, BLOCKED_NANOS);
+                }
+                pos = tail.get();
+            } else { // Claimed by another thread
+                pos = tail.get();
+            }
+        }
+
+        if (closed) // Nobody may be left to write the message
+            drainClosed();
+        else if (sleeping)
+            LockSupport.unpark(flusher);
+
+        return true;
+    }
+
+    /**
+     * Wait until every message queued before the call has been written.
+     *
+     * @param timeout
+     *            Maximum time to wait, in milliseconds.
+     * @return True if the messages were written within the timeout.
+     */
+    public boolean sync(final long timeout) {
+        final long target = tail.get();
+        final long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        while (written < target) {
+            if (!flusher.isAlive()) {
+                drainClosed();
+                return true;
+            }
+            if (System.nanoTime() - deadline > 0)
+                return false;
+
+            LockSupport.unpark(flusher);
+            LockSupport.parkNanos(this, BLOCKED_NANOS);
+        }
+
+        return true;
+    }
+
+    /**
+     * Stop the flusher thread once it has written every queued message. Any
+     * later messages are written synchronously.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(flusher);
+
+        try {
+            flusher.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        drainClosed();
+    }
+
+    /**
+     * Return the number of messages dropped because the ring buffer was full.
+     *
+     * @return Dropped message count.
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Return the number of messages waiting to be written.
+     *
+     * @return Queued message count.
+     */
+    public long depth() {
+        return Math.max(0, tail.get() - written);
+    }
+
+    // The flusher thread body
+    private void flush() {
+        long reported = 0;
+
+        while (true) {
+            if (drain())
+                continue;
+
+            final long d = dropped.get();
+            if (d != reported) {
+                write(new Entry(System.currentTimeMillis(), true,
+                        " WARNING: ", (d - reported)
+                                + " log messages dropped", null));
+                reported = d;
+            }
+
+            out.flush();
+            err.flush();
+            written = head;
+
+            if (closed)
+                return;
+
+            sleeping = true;
+            if (isEmpty()) // Re-check after announcing sleep
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            sleeping = false;
+        }
+    }
+
+    // Write queued messages once the flusher has stopped
+    private void drainClosed() {
+        if (flusher.isAlive()) {
+            try {
+                flusher.join(CLOSE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        synchronized (this) {
+            if (flusher.isAlive()) // Still running, so it owns the buffer
+                return;
+
+            while (drain())
+                ;
+
+            out.flush();
+            err.flush();
+            written = head;
+        }
+    }
+
+    // Write the next message, returning false if there are none
+    private boolean drain() {
+        final int i = (int) head & mask;
+
+        if (sequence.get(i) != head + 1)
+            return false;
+
+        final Entry entry = slots[i];
+
+        slots[i] = null;
+        sequence.set(i, head + slots.length); // Release the slot
+        head++;
+
+        write(entry);
+
+        return true;
+    }
+
+    private boolean isEmpty() {
+        return sequence.get((int) head & mask) != head + 1;
+    }
+
+    private void write(final Entry entry) {
+        final PrintStream s = entry.error ? err : out;
+
+        s.print(timestamp(entry.time));
+        s.print(entry.label);
+        s.println(entry.message);
+
+        if (entry.e != null)
+            entry.e.printStackTrace(s);
+    }
+
+    // Format a time, reusing the previous result within the same second
+    private String timestamp(final long time) {
+        final long second = time / 1000;
+
+        if (second != stampSecond) {
+            stamp = format.format(new Date(time));
+            stampSecond = second;
+        }
+
+        return stamp;
+    }
+
+    /**
+     * A queued log message.
+     */
+    private static final class Entry {
+        final long time;
+        final boolean error;
+        final String label;
+        final String message;
+        final Throwable e;
+
+        Entry(final long time, final boolean error, final String label,
+                final String message, final Throwable e) {
+            this.time = time;
+            this.error = error;
+            this.label = label;
+            this.message = message;
+            this.e = e;
+        }
+    }
+}
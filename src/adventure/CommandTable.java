@@ -0,0 +1,229 @@
+package adventure;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A verb-keyed dispatch table which maps the first word of a command onto the
+ * action which handles it. Tables are built once per room class and shared
+ * between every room of that class, since rooms of the same type register the
+ * same actions in the same order. Each room keeps its own array of action
+ * instances, indexed by the slot numbers stored in the table.<br/>
+ * <br/>
+ *
+ * Verbs are stored in an open addressed hash table, and lookups are made
+ * directly against a region of the command string, so that finding the action
+ * for a command requires neither regular expressions nor allocation. The help
+ * text for the actions is built along with the table, and shared in the same
+ * way, as are the counters of commands handled by each action.
+ *
+ * @author Chris Cummins
+ */
+public final class CommandTable {
+
+    // Shared tables, keyed by room class
+    private static final ConcurrentHashMap<Class<?>, CommandTable> tables = new ConcurrentHashMap<Class<?>, CommandTable>();
+
+    private final Class<?>[] types; // The action type of each slot
+    private final String[] verbs; // Open addressed verb keys
+    private final int[] slots; // The action slot of each verb
+    private final int mask;
+    private final String[] help; // Shared, never modified
+    private final LongAdder[] counters; // Commands handled by each slot
+
+    private CommandTable(final List<Action> actions, final String[] builtIns) {
+        int capacity = 8;
+        int count = 0;
+
+        this.types = new Class<?>[actions.size()];
+        this.counters = new LongAdder[actions.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = actions.get(i).getClass();
+            counters[i] = Metrics.commands(types[i].getSimpleName());
+            count += actions.get(i).getVerbs().length;
+        }
+
+        while (capacity < count * 2) // Keep load factor <= 0.5
+            capacity <<= 1;
+
+        this.verbs = new String[capacity];
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+
+        this.help = new String[builtIns.length + actions.size()];
+        for (int i = 0; i < builtIns.length; i++)
+            help[i] = builtIns[i].intern();
+        for (int i = 0; i < actions.size(); i++)
+            help[builtIns.length + i] = actions.get(i).getHelpText().intern();
+
+        for (int slot = 0; slot < types.length; slot++) {
+            for (final String verb : actions.get(slot).getVerbs()) {
+                int i = index(verb.hashCode());
+
+                while (verbs[i] != null && !verbs[i].equals(verb))
+                    i = (i + 1) & mask;
+
+                if (verbs[i] == null) { // First registration wins
+                    verbs[i] = verb;
+                    slots[i] = slot;
+                } else {
+                    SystemIO.warning("Duplicate command verb '" + verb
+                            + "' ignored");
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the dispatch table for a room class. If a table has already been
+     * built for the class and it matches the given actions, it is reused.
+     *
+     * @param room
+     *            The room class.
+     * @param actions
+     *            The actions implemented by the room, in slot order.
+     * @param builtIns
+     *            The help text of the room's built in commands, which
+     *            precedes the help text of the actions.
+     * @return A dispatch table for the given actions.
+     */
+    public static CommandTable forRoom(final Class<?> room,
+            final List<Action> actions, final String[] builtIns) {
+        final CommandTable cached = tables.get(room);
+
+        if (cached != null && cached.matches(actions))
+            return cached;
+
+        final CommandTable table = new CommandTable(actions, builtIns);
+
+        if (cached == null)
+            tables.putIfAbsent(room, table);
+
+        return table;
+    }
+
+    /**
+     * Find the table index of the verb contained within a region of a
+     * command string.
+     *
+     * @param s
+     *            The command string.
+     * @param start
+     *            The index of the first character of the verb.
+     * @param end
+     *            The index after the last character of the verb.
+     * @return The table index of the verb, or -1 if no action handles it.
+     */
+    public int find(final String s, final int start, final int end) {
+        final int length = end - start;
+        int h = 0;
+
+        for (int j = start; j < end; j++)
+            h = 31 * h + s.charAt(j); // Equivalent to String.hashCode()
+
+        for (int i = index(h);; i = (i + 1) & mask) {
+            final String verb = verbs[i];
+
+            if (verb == null)
+                return -1;
+            else if (verb.length() == length
+                    && s.regionMatches(start, verb, 0, length))
+                return i;
+        }
+    }
+
+    /**
+     * Return the verb stored at a table index.
+     *
+     * @param i
+     *            A table index returned by find().
+     * @return The registered verb string.
+     */
+    public String verb(final int i) {
+        return verbs[i];
+    }
+
+    /**
+     * Return the action slot of the verb stored at a table index.
+     *
+     * @param i
+     *            A table index returned by find().
+     * @return The position of the handling action in the room's action list.
+     */
+    public int slot(final int i) {
+        return slots[i];
+    }
+
+    /**
+     * Count a command handled by the action of the verb stored at a table
+     * index.
+     *
+     * @param i
+     *            A table index returned by find().
+     */
+    public void handled(final int i) {
+        counters[slots[i]].increment();
+    }
+
+    /**
+     * Return the help text of the room, one line per command. The array is
+     * shared between every room of the same class, and must not be modified.
+     *
+     * @return Help text lines.
+     */
+    public String[] help() {
+        return help;
+    }
+
+    /**
+     * Compare a string against a sequence of space separated words, allowing
+     * for any amount of whitespace between words in the string. E.g. "me  a
+     * dragon" matches "me a dragon".
+     *
+     * @param s
+     *            The string to test.
+     * @param words
+     *            Words separated by single spaces.
+     * @return True if the string contains exactly the given words.
+     */
+    public static boolean wordsMatch(final String s, final String words) {
+        int i = 0, j = 0;
+
+        while (i < s.length() && j < words.length()) {
+            final char c = words.charAt(j);
+
+            if (c == ' ') {
+                if (!Character.isWhitespace(s.charAt(i)))
+                    return false;
+                while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+                    i++;
+                j++;
+            } else if (s.charAt(i++) == c) {
+                j++;
+            } else {
+                return false;
+            }
+        }
+
+        return i == s.length() && j == words.length();
+    }
+
+    // Whether the table was built for the given action types
+    private boolean matches(final List<Action> actions) {
+        if (actions.size() != types.length)
+            return false;
+
+        for (int i = 0; i < types.length; i++) {
+            if (actions.get(i).getClass() != types[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    // Map a hash code onto a table index
+    private int index(final int h) {
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -1,13 +1,25 @@
 package adventure;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * The configuration object for a room server. This class provides a transparent
@@ -38,46 +50,150 @@ import org.w3c.dom.NodeList;
  * </adventure>}
  * </pre>
  * 
+ * An optional server element may be used to tune the server. Any values which
+ * are omitted take their defaults.<br/>
+ * </br/>
+ * 
+ * A server may host several mazes, each given by its own maze element. Every
+ * maze registers with the game server separately, so each maze after the first
+ * must give its own user, and optionally key, elements in place of the
+ * credentials. The configuration of each maze is available from getMazes(),
+ * and shares the server tuning and room descriptions of the first.<br/>
+ * </br/>
+ * 
+ * A maze may be partitioned between several room servers, each serving one
+ * rectangular region, by giving regions and servers elements within the maze
+ * element. The regions are given as columns x rows, e.g. 2x2, and divide the
+ * maze width and height evenly. The servers list the user serving each
+ * region, separated by spaces, row by row from the south west, and must
+ * include this maze's user. Every server is given the same maze element, and
+ * its own credentials.<br/>
+ * </br/>
+ * 
+ * The file is read in a single streaming pass, and every value is validated
+ * when the configuration is constructed. No parse tree is kept, and a
+ * configuration is immutable once built.
+ * 
  * @author Chris Cummins
  */
 public class Config {
 
-    private final Document doc;
-    private final Element credentials;
-    private final Element maze;
+    // Server defaults
+    private static final int DEFAULT_SENDER_THREADS = 4;
+    private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    private static final int DEFAULT_COALESCE_WINDOW = 0;
+    private static final int DEFAULT_SCROLL_DELAY = 1250;
+    private static final int DEFAULT_MAX_ROOMS = 10000;
+    private static final int DEFAULT_IDLE_TIMEOUT = 300000;
+    private static final int DEFAULT_WORKER_THREADS = 64;
+    private static final int DEFAULT_WORKER_QUEUE = 4096;
+
+    // The file the configuration was read from
+    private final File file;
+
+    // Credentials
+    private final String host;
+    private final String user;
+    private final String key;
+    private final boolean first; // True for the first maze in the file
+
+    // Maze
+    private final int width;
+    private final int height;
+    private final long seed;
+    private final boolean seedSet; // False if the seed was chosen at random
+    private final String[] descriptions;
+    private final Partition partition; // Null unless partitioned
+
+    // Server tuning
+    private final int senders;
+    private final int queueCapacity;
+    private final int coalesceWindow;
+    private final int scrollDelay;
+    private final int maxRooms;
+    private final int idleTimeout;
+    private final SystemIO.Level logLevel;
+    private final AsyncLogger.Overflow logOverflow;
+    private final Dispatcher.Mode execution;
+    private final int workerThreads;
+    private final int workerQueue;
+    private final int metricsPort;
+    private final boolean watch;
+    private final int warmUp;
+
+    // The configuration of every maze, starting with this one
+    private final List<Config> mazes;
 
     /**
-     * Constructs a configuration from a given XML file. The implementation uses
-     * a DOM style parser, providing lazy evaluation of properties on an
-     * as-needed basis.
+     * Constructs a configuration from a given XML file. The file is parsed
+     * with a streaming parser, and each value is validated as it is stored.
+     * The configuration is that of the first maze in the file.
      * 
      * @param file
      *            The configuration file to parse.
      * @throws ConfigParseException
-     *             In case of error while parsing the file.
+     *             In case of error while parsing the file, or if a value is
+     *             missing or invalid.
      * @throws FileNotFoundException
      *             In case the given file does not exist.
      */
     public Config(final File file) throws ConfigParseException,
             FileNotFoundException {
-        if (!file.exists()) { // Sanity check for config file
-            throw new FileNotFoundException("Configuration file '"
-                    + file.getAbsolutePath() + "' not found!");
-        }
+        this(file, parse(file), 0);
+    }
 
-        try {
-            DocumentBuilderFactory fb = DocumentBuilderFactory.newInstance();
+    // Construct the configuration of one maze from the parsed file
+    private Config(final File file, final Parsed parsed, final int maze)
+            throws ConfigParseException {
+        final Map<String, String> values = parsed.values;
 
-            doc = fb.newDocumentBuilder().parse(file);
-            doc.getDocumentElement().normalize();
+        this.file = file;
 
-            credentials = getElement(doc, "credentials");
-            maze = getElement(doc, "maze");
-        } catch (Exception e) {
-            throw new ConfigParseException(
-                    "Failed to parse configuration file '" + file.getName()
-                            + "'!");
-        }
+        this.host = getElement(values, "credentials", "host");
+        this.user = getMazeString(values, maze, "user");
+        this.key = getMazeString(values, maze, "key");
+        this.first = maze == 0;
+
+        this.width = getMazeInt(values, maze, "width");
+        this.height = getMazeInt(values, maze, "height");
+        final Long seed = getMazeSeed(values, maze);
+        this.seedSet = seed != null;
+        this.seed = seedSet ? seed : new Random().nextLong();
+        this.descriptions = parsed.rooms; // Shared, never modified
+        this.partition = getPartition(values, maze, user, width, height);
+
+        this.senders = getPositiveInt(values, "senders",
+                DEFAULT_SENDER_THREADS);
+        this.queueCapacity = getPositiveInt(values, "queue-capacity",
+                DEFAULT_QUEUE_CAPACITY);
+        this.coalesceWindow = getNonNegativeInt(values, "coalesce-window",
+                DEFAULT_COALESCE_WINDOW);
+        this.scrollDelay = getNonNegativeInt(values, "scroll-delay",
+                DEFAULT_SCROLL_DELAY);
+        this.maxRooms = getPositiveInt(values, "max-rooms", DEFAULT_MAX_ROOMS);
+        this.idleTimeout = getPositiveInt(values, "idle-timeout",
+                DEFAULT_IDLE_TIMEOUT);
+        this.logLevel = getEnum(values, "log-level", SystemIO.Level.class,
+                SystemIO.Level.OK);
+        this.logOverflow = getEnum(values, "log-overflow",
+                AsyncLogger.Overflow.class, AsyncLogger.Overflow.BLOCK);
+        this.execution = getEnum(values, "execution", Dispatcher.Mode.class,
+                Dispatcher.Mode.ORB);
+        this.workerThreads = getPositiveInt(values, "worker-threads",
+                DEFAULT_WORKER_THREADS);
+        this.workerQueue = getPositiveInt(values, "worker-queue",
+                DEFAULT_WORKER_QUEUE);
+        this.metricsPort = getNonNegativeInt(values, "metrics-port", 0);
+        this.watch = getBoolean(values, "watch-config", false);
+        this.warmUp = getWarmUp(values);
+
+        if (metricsPort > 65535)
+            throw new ConfigParseException("Server metrics-port is not a port!");
+
+        if (maze == 0)
+            this.mazes = getMazes(file, parsed, this);
+        else
+            this.mazes = Collections.singletonList(this);
     }
 
     /**
@@ -95,16 +211,33 @@ public class Config {
         this(new File(path));
     }
 
+    /**
+     * Returns the configuration of every maze hosted by the server, in the
+     * order they are given in the file. The first is this configuration.
+     * 
+     * @return The maze configurations.
+     */
+    public List<Config> getMazes() {
+        return mazes;
+    }
+
+    /**
+     * Returns the file the configuration was read from.
+     * 
+     * @return The configuration file.
+     */
+    public File getFile() {
+        return file;
+    }
+
     /**
      * Retrieves the URL of the game server. It is set within the credentials
      * tag as a string enclosed within host tags.
      * 
      * @return The game server host, as a string.
-     * @throws ConfigParseException
-     *             In case of error while parsing the configuration file.
      */
-    public String getGameServerHost() throws ConfigParseException {
-        return getElement(credentials, "host");
+    public String getGameServerHost() {
+        return host;
     }
 
     /**
@@ -112,11 +245,21 @@ public class Config {
      * within the credentials tag as a string enclosed within user tags.
      * 
      * @return User name, as a string.
-     * @throws ConfigParseException
-     *             In case of error while parsing the configuration file.
      */
-    public String getUser() throws ConfigParseException {
-        return getElement(credentials, "user");
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the prefix of the names of the files written by the rooms of
+     * this maze, so that mazes served by the same process do not share them.
+     * The first maze has no prefix, so its files keep the names they had
+     * before a process could serve several mazes.
+     * 
+     * @return Empty for the first maze, else the user and a hyphen.
+     */
+    public String getFilePrefix() {
+        return first ? "" : user + '-';
     }
 
     /**
@@ -124,83 +267,562 @@ public class Config {
      * the credentials tag as a string enclosed within key tags.
      * 
      * @return Secret hash as a string.
-     * @throws ConfigParseException
-     *             In case of error while parsing the configuration file.
      */
-    public String getSecretHash() throws ConfigParseException {
-        return getElement(credentials, "key");
+    public String getSecretHash() {
+        return key;
     }
 
-    public int getMazeWidth() throws ConfigParseException {
-        try {
-            return Integer.parseInt(getElement(maze, "width"));
-        } catch (NumberFormatException e) {
-            throw new ConfigParseException("Maze width is not a number!");
-        }
+    /**
+     * Retrieves the width of the maze, in rooms. It is set within the maze tag
+     * as a number enclosed within width tags.
+     * 
+     * @return The maze width.
+     */
+    public int getMazeWidth() {
+        return width;
+    }
+
+    /**
+     * Retrieves the height of the maze, in rooms. It is set within the maze
+     * tag as a number enclosed within height tags.
+     * 
+     * @return The maze height.
+     */
+    public int getMazeHeight() {
+        return height;
+    }
+
+    /**
+     * Retrieves the seed used to generate the maze. Rooms generated from the
+     * same seed always have the same content. It is set within the maze tag
+     * as a number enclosed within seed tags, and is optional. If it is not
+     * set, a random seed is chosen.
+     * 
+     * @return The maze seed.
+     */
+    public long getMazeSeed() {
+        return seed;
     }
 
-    public int getMazeHeight() throws ConfigParseException {
+    /**
+     * Retrieves whether the maze seed was set, rather than chosen at random.
+     * 
+     * @return True if the seed tag was given.
+     */
+    public boolean isMazeSeedSet() {
+        return seedSet;
+    }
+
+    /**
+     * Retrieves the partition of the maze between room servers. It is set
+     * within the maze tag by regions and servers tags, and is optional.
+     * 
+     * @return The partition, or null if this server serves the whole maze.
+     */
+    public Partition getPartition() {
+        return partition;
+    }
+
+    /**
+     * Retrieves the room descriptions. Each is set within the rooms tag as
+     * text enclosed within description tags, and has its whitespace collapsed
+     * to single spaces.
+     * 
+     * @return A copy of the room descriptions.
+     */
+    public String[] getDescriptions() {
+        return descriptions.clone();
+    }
+
+    /**
+     * Retrieves the number of threads used to deliver outbound messages. It is
+     * set within the server tag as a number enclosed within senders tags.
+     * 
+     * @return The number of sender threads.
+     */
+    public int getSenderThreads() {
+        return senders;
+    }
+
+    /**
+     * Retrieves the maximum number of queued outbound messages. It is set
+     * within the server tag as a number enclosed within queue-capacity tags.
+     * 
+     * @return The outbound queue capacity.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Retrieves the time that sender threads wait for further messages to the
+     * same player before making a call, in milliseconds. It is set within the
+     * server tag as a number enclosed within coalesce-window tags.
+     * 
+     * @return The coalescing window, in milliseconds.
+     */
+    public int getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * Retrieves the delay between the lines of a scrolling message, in
+     * milliseconds. It is set within the server tag as a number enclosed
+     * within scroll-delay tags.
+     * 
+     * @return The scroll delay, in milliseconds.
+     */
+    public int getScrollDelay() {
+        return scrollDelay;
+    }
+
+    /**
+     * Retrieves the number of room servants above which idle rooms are
+     * evicted from memory. It is set within the server tag as a number
+     * enclosed within max-rooms tags.
+     * 
+     * @return The room servant cap.
+     */
+    public int getMaxRooms() {
+        return maxRooms;
+    }
+
+    /**
+     * Retrieves the time after which empty rooms are evicted from memory, in
+     * milliseconds. It is set within the server tag as a number enclosed
+     * within idle-timeout tags.
+     * 
+     * @return The idle timeout, in milliseconds.
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Retrieves the minimum level of messages which are logged. It is set
+     * within the server tag as one of ok, warning, error or off, enclosed
+     * within log-level tags.
+     * 
+     * @return The log level.
+     */
+    public SystemIO.Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * Retrieves the behaviour when messages are logged faster than they can be
+     * written. It is set within the server tag as either block or drop,
+     * enclosed within log-overflow tags.
+     * 
+     * @return The log overflow policy.
+     */
+    public AsyncLogger.Overflow getLogOverflow() {
+        return logOverflow;
+    }
+
+    /**
+     * Retrieves the threads on which room callbacks run. It is set within the
+     * server tag as either orb or executor, enclosed within execution tags.
+     * 
+     * @return The callback execution mode.
+     */
+    public Dispatcher.Mode getExecutionMode() {
+        return execution;
+    }
+
+    /**
+     * Retrieves the number of worker threads which run room callbacks in
+     * executor mode. It is set within the server tag, enclosed within
+     * worker-threads tags.
+     * 
+     * @return The number of worker threads.
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Retrieves the maximum number of rooms waiting for a worker thread in
+     * executor mode. It is set within the server tag, enclosed within
+     * worker-queue tags.
+     * 
+     * @return The worker queue capacity.
+     */
+    public int getWorkerQueue() {
+        return workerQueue;
+    }
+
+    /**
+     * Retrieves the local port on which metrics are served over HTTP. It is
+     * set within the server tag, enclosed within metrics-port tags. A port of
+     * 0 disables the HTTP endpoint, and metrics are available through JMX
+     * only.
+     * 
+     * @return The metrics port, or 0.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Retrieves whether the configuration file is watched, and reloaded when
+     * it changes. It is set within the server tag as either true or false,
+     * enclosed within watch-config tags.
+     * 
+     * @return True if the configuration is reloaded on change.
+     */
+    public boolean getWatchConfig() {
+        return watch;
+    }
+
+    /**
+     * Retrieves the size of the region around room 0 which is built before
+     * the server is ready, as the maximum number of moves from room 0. It is
+     * set within the server tag as a number, off or all, enclosed within
+     * warm-up tags.
+     * 
+     * @return The warm-up radius, 0 if off, or Integer.MAX_VALUE for every
+     *         room.
+     */
+    public int getWarmUp() {
+        return warmUp;
+    }
+
+    /*
+     * Parsing methods:
+     */
+
+    /*
+     * Read a configuration file in one pass. The text of each element nested
+     * two deep, e.g. credentials/host, is stored by its path, and room
+     * descriptions are collected in order. The elements of each maze are
+     * stored by the maze's index, e.g. maze/0/width. Where an element is
+     * repeated, the first wins.
+     */
+    private static Parsed parse(final File file) throws ConfigParseException,
+            FileNotFoundException {
+        if (!file.exists()) { // Sanity check for config file
+            throw new FileNotFoundException("Configuration file '"
+                    + file.getAbsolutePath() + "' not found!");
+        }
+
+        final Map<String, String> values = new HashMap<String, String>();
+        final List<String> rooms = new ArrayList<String>();
+        int mazes = 0;
+
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
+
+        InputStream in = null;
+        XMLStreamReader reader = null;
+
         try {
-            return Integer.parseInt(getElement(maze, "height"));
-        } catch (NumberFormatException e) {
-            throw new ConfigParseException("Maze height is not a number!");
+            in = new BufferedInputStream(new FileInputStream(file));
+            reader = factory.createXMLStreamReader(in);
+
+            final StringBuilder text = new StringBuilder();
+            String section = null, option = null;
+            int depth = 0;
+
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    if (depth == 2) {
+                        section = reader.getLocalName();
+                        if ("maze".equals(section))
+                            section = "maze/" + mazes++;
+                    } else if (depth == 3) {
+                        option = reader.getLocalName();
+                        text.setLength(0);
+                    }
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (depth >= 3)
+                        text.append(reader.getTextCharacters(),
+                                reader.getTextStart(), reader.getTextLength());
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth == 3) {
+                        if ("rooms".equals(section)
+                                && "description".equals(option)) {
+                            rooms.add(normalize(text));
+                        } else {
+                            final String path = section + '/' + option;
+
+                            if (!values.containsKey(path))
+                                values.put(path, text.toString());
+                        }
+                    }
+                    depth--;
+                    break;
+
+                default:
+                    break;
+                }
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new ConfigParseException(
+                    "Failed to parse configuration file '" + file.getName()
+                            + "'!");
+        } finally {
+            close(reader, in);
         }
+
+        return new Parsed(values, rooms.toArray(new String[rooms.size()]),
+                Math.max(1, mazes));
     }
 
-    public String[] getDescriptions() throws ConfigParseException {
-        final NodeList list = getElements("rooms", "description");
-        final String[] descriptions = new String[list.getLength()];
+    /*
+     * Remove the line breaks from a description, and collapse each run of
+     * whitespace to a single space.
+     */
+    private static String normalize(final CharSequence text) {
+        final StringBuilder s = new StringBuilder(text.length());
+        boolean space = false;
 
-        for (int i = 0; i < descriptions.length; i++) {
-            final Element n = (Element) list.item(i);
-            descriptions[i] = n.getTextContent().replaceAll("\n", "")
-                    .replaceAll("\\s+", " ");
-            ;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+
+            if (c == '\n') {
+                continue;
+            } else if (c == ' ' || c == '\t' || c == '\r' || c == '\f'
+                    || c == '\u000B') {
+                if (!space)
+                    s.append(' ');
+                space = true;
+            } else {
+                s.append(c);
+                space = false;
+            }
         }
 
-        return descriptions;
+        return s.toString();
+    }
+
+    private static void close(final XMLStreamReader reader,
+            final InputStream in) {
+        try {
+            if (reader != null)
+                reader.close();
+        } catch (XMLStreamException e) {
+        }
+
+        try {
+            if (in != null)
+                in.close();
+        } catch (IOException e) {
+        }
     }
 
     /*
-     * DOM traversal methods:
+     * Validation methods:
      */
 
-    private Element getElement(final Document root, final String name)
+    private static String getElement(final Map<String, String> values,
+            final String section, final String name)
             throws ConfigParseException {
-        try {
-            return (Element) root.getElementsByTagName(name).item(0);
-        } catch (Exception e) {
+        final String value = values.get(section + '/' + name);
+
+        if (value == null)
             throw new ConfigParseException("Failed to retrieve element '"
                     + name + "'!");
+
+        return value;
+    }
+
+    // Build the configuration of every maze, and check their users differ
+    private static List<Config> getMazes(final File file,
+            final Parsed parsed, final Config first)
+            throws ConfigParseException {
+        final List<Config> mazes = new ArrayList<Config>(parsed.mazes);
+        final HashSet<String> users = new HashSet<String>();
+
+        mazes.add(first);
+        for (int i = 1; i < parsed.mazes; i++)
+            mazes.add(new Config(file, parsed, i));
+
+        for (final Config maze : mazes) {
+            if (!users.add(maze.getUser()))
+                throw new ConfigParseException("Maze user '" + maze.getUser()
+                        + "' is used by more than one maze!");
         }
+
+        return Collections.unmodifiableList(mazes);
     }
 
-    private Element getElement(final String name) throws ConfigParseException {
-        return getElement(doc, name);
+    // A maze's own user or key, or else the credentials
+    private static String getMazeString(final Map<String, String> values,
+            final int maze, final String name) throws ConfigParseException {
+        final String value = values.get("maze/" + maze + '/' + name);
+
+        return value != null ? value : getElement(values, "credentials", name);
     }
 
-    private String getElement(final Element parent, final String name)
-            throws ConfigParseException {
+    private static int getMazeInt(final Map<String, String> values,
+            final int maze, final String name) throws ConfigParseException {
         try {
-            return parent.getElementsByTagName(name).item(0).getTextContent();
-        } catch (Exception e) {
-            throw new ConfigParseException("Failed to retrieve element '"
-                    + name + "'!");
+            return Integer.parseInt(getElement(values, "maze/" + maze, name)
+                    .trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigParseException("Maze " + name
+                    + " is not a number!");
+        }
+    }
+
+    private static Long getMazeSeed(final Map<String, String> values,
+            final int maze) throws ConfigParseException {
+        final String seed = values.get("maze/" + maze + "/seed");
+
+        if (seed == null)
+            return null;
+
+        try {
+            return Long.parseLong(seed.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigParseException("Maze seed is not a number!");
         }
     }
 
-    private NodeList getElements(final Element parent, final String name)
+    private static Partition getPartition(final Map<String, String> values,
+            final int maze, final String user, final int width,
+            final int height) throws ConfigParseException {
+        final String section = "maze/" + maze;
+
+        if (values.get(section + "/regions") == null
+                && values.get(section + "/servers") == null)
+            return null;
+
+        final String[] regions = getElement(values, section, "regions")
+                .trim().split("\\s*x\\s*");
+        final String[] users = getElement(values, section, "servers").trim()
+                .split("\\s+");
+        final int columns, rows;
+
+        try {
+            columns = Integer.parseInt(regions[0]);
+            rows = regions.length == 2 ? Integer.parseInt(regions[1]) : 0;
+        } catch (NumberFormatException e) {
+            throw new ConfigParseException(
+                    "Maze regions is not columns x rows!");
+        }
+
+        if (columns < 1 || rows < 1)
+            throw new ConfigParseException(
+                    "Maze regions is not columns x rows!");
+        if (width % columns != 0 || height % rows != 0)
+            throw new ConfigParseException(
+                    "Maze regions do not divide the maze evenly!");
+        if (users.length != columns * rows
+                || new HashSet<String>(Arrays.asList(users)).size() < columns
+                        * rows)
+            throw new ConfigParseException(
+                    "Maze servers do not name one user per region!");
+        if (!Arrays.asList(users).contains(user))
+            throw new ConfigParseException("Maze servers do not include user '"
+                    + user + "'!");
+
+        return new Partition(columns, rows, users, user);
+    }
+
+    private static int getPositiveInt(final Map<String, String> values,
+            final String name, final int defaultValue)
+            throws ConfigParseException {
+        final int value = getNonNegativeInt(values, name, defaultValue);
+
+        if (value == 0)
+            throw new ConfigParseException("Server " + name
+                    + " is not a positive number!");
+
+        return value;
+    }
+
+    private static int getNonNegativeInt(final Map<String, String> values,
+            final String name, final int defaultValue)
             throws ConfigParseException {
+        final String s = values.get("server/" + name);
+
+        if (s == null)
+            return defaultValue;
+
         try {
-            return parent.getElementsByTagName(name);
-        } catch (Exception e) {
-            throw new ConfigParseException("Failed to retrieve elements '"
-                    + name + "'!");
+            final int value = Integer.parseInt(s.trim());
+
+            if (value >= 0)
+                return value;
+        } catch (NumberFormatException e) {
         }
+
+        throw new ConfigParseException("Server " + name + " is not a number!");
+    }
+
+    private static int getWarmUp(final Map<String, String> values)
+            throws ConfigParseException {
+        final String s = values.get("server/warm-up");
+
+        if (s != null && s.trim().equalsIgnoreCase("off"))
+            return 0;
+        else if (s != null && s.trim().equalsIgnoreCase("all"))
+            return Integer.MAX_VALUE;
+
+        return getNonNegativeInt(values, "warm-up", 0);
     }
 
-    private NodeList getElements(final String parent, final String name)
+    private static boolean getBoolean(final Map<String, String> values,
+            final String name, final boolean defaultValue)
             throws ConfigParseException {
-        return getElements(getElement(parent), name);
+        final String s = values.get("server/" + name);
+
+        if (s == null)
+            return defaultValue;
+        else if (s.trim().equalsIgnoreCase("true"))
+            return true;
+        else if (s.trim().equalsIgnoreCase("false"))
+            return false;
+
+        throw new ConfigParseException("Server " + name
+                + " is not true or false!");
+    }
+
+    private static <E extends Enum<E>> E getEnum(
+            final Map<String, String> values, final String name,
+            final Class<E> type, final E defaultValue)
+            throws ConfigParseException {
+        final String s = values.get("server/" + name);
+
+        if (s == null)
+            return defaultValue;
+
+        try {
+            return Enum.valueOf(type, s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigParseException("Server " + name
+                    + " is not a valid option!");
+        }
+    }
+
+    /**
+     * The values read from a configuration file, before validation.
+     */
+    private static final class Parsed {
+
+        final Map<String, String> values;
+        final String[] rooms;
+        final int mazes;
+
+        Parsed(final Map<String, String> values, final String[] rooms,
+                final int mazes) {
+            this.values = values;
+            this.rooms = rooms;
+            this.mazes = mazes;
+        }
     }
 }
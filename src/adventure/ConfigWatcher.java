@@ -0,0 +1,141 @@
+package adventure;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a configuration file, and reloads it whenever it changes. Editors
+ * often write a file in several steps, so a reload waits until the file has
+ * been quiet for a short while. A file which fails to parse is reported and
+ * ignored, and the running configuration is kept.
+ *
+ * @author Chris Cummins
+ */
+public final class ConfigWatcher extends Thread {
+
+    /**
+     * Receives reloaded configurations.
+     */
+    public interface Listener {
+
+        /**
+         * Apply a reloaded configuration.
+         *
+         * @param cfg
+         *            The new configuration.
+         * @return The number of live rooms changed.
+         * @throws ConfigParseException
+         *             If the configuration cannot be applied.
+         */
+        public int reload(final Config cfg) throws ConfigParseException;
+    }
+
+    // Time the file must be unchanged before it is reloaded, in milliseconds
+    private static final long QUIET_PERIOD = 200;
+
+    private final File file;
+    private final Listener listener;
+    private final WatchService watcher;
+
+    /**
+     * Start watching a configuration file.
+     *
+     * @param file
+     *            The configuration file.
+     * @param listener
+     *            The listener which applies reloaded configurations.
+     * @throws IOException
+     *             In case the file's directory cannot be watched.
+     */
+    public ConfigWatcher(final File file, final Listener listener)
+            throws IOException {
+        super("config-watcher");
+
+        this.file = file.getAbsoluteFile();
+        this.listener = listener;
+        this.watcher = FileSystems.getDefault().newWatchService();
+
+        this.file.getParentFile().toPath().register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        setDaemon(true);
+    }
+
+    /**
+     * Stop watching the file.
+     */
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            SystemIO.error("Failed to stop watching configuration!", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        SystemIO.log("Watching '" + file.getPath() + "' for changes");
+
+        try {
+            while (true) {
+                if (!changed(watcher.take()))
+                    continue;
+
+                // Wait for the file to settle
+                WatchKey key;
+                while ((key = watcher.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null)
+                    changed(key);
+
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    // Whether a watch key has events for the configuration file
+    private boolean changed(final WatchKey key) {
+        final Path name = file.toPath().getFileName();
+        boolean changed = false;
+
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || name.equals(event.context()))
+                changed = true;
+        }
+
+        key.reset();
+        return changed;
+    }
+
+    // Parse and apply the configuration file
+    private void reload() {
+        final long start = System.nanoTime();
+
+        try {
+            final int rooms = listener.reload(new Config(file));
+
+            SystemIO.log(String.format(Locale.ROOT,
+                    "Reloaded configuration in %.1f ms, %d rooms changed",
+                    (System.nanoTime() - start) / 1e6, rooms));
+        } catch (FileNotFoundException e) { // Replaced, and not yet written
+            SystemIO.warning("Configuration file '" + file.getPath()
+                    + "' not found, keeping current configuration");
+        } catch (ConfigParseException e) {
+            SystemIO.error(e.getMessage()
+                    + " Keeping current configuration.");
+        } catch (RuntimeException e) {
+            SystemIO.error("Failed to reload configuration!", e);
+        }
+    }
+}
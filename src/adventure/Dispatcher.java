@@ -0,0 +1,202 @@
+package adventure;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the threads on which room callbacks run. In ORB mode, callbacks run
+ * on the ORB thread which received them, so a callback which blocks on the
+ * game server holds an ORB thread for as long as it blocks. In executor mode,
+ * the oneway room callbacks are handed off to a bounded pool of worker
+ * threads, and the ORB thread returns immediately.<br/>
+ * <br/>
+ *
+ * Each room is given its own serial executor, which runs the room's callbacks
+ * one at a time and in the order they arrived, so that e.g. a command is never
+ * processed before the player who sent it has entered the room. Rooms share
+ * the worker pool, and a busy room yields its worker after a batch of
+ * callbacks so that it cannot starve other rooms.
+ *
+ * @author Chris Cummins
+ */
+public final class Dispatcher {
+
+    /**
+     * Callback execution modes.
+     */
+    public enum Mode {
+        /** Run callbacks on the ORB thread. */
+        ORB,
+        /** Run callbacks on a bounded pool of worker threads. */
+        EXECUTOR
+    }
+
+    /**
+     * An executor which runs tasks on the calling thread.
+     */
+    public static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(final Runnable task) {
+            task.run();
+        }
+    };
+
+    // Maximum number of callbacks a room runs before yielding its worker
+    private static final int BATCH = 64;
+
+    private final ThreadPoolExecutor pool; // Null in ORB mode
+
+    /**
+     * Create a dispatcher.
+     *
+     * @param mode
+     *            The execution mode.
+     * @param threads
+     *            The number of worker threads, in executor mode.
+     * @param capacity
+     *            The maximum number of rooms waiting for a worker, in executor
+     *            mode. Once full, ORB threads run callbacks themselves.
+     */
+    public Dispatcher(final Mode mode, final int threads, final int capacity) {
+        if (mode == Mode.EXECUTOR) {
+            final AtomicInteger count = new AtomicInteger();
+
+            this.pool = new ThreadPoolExecutor(threads, threads, 0,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                            capacity), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread t = new Thread(r, "room-worker-"
+                                    + count.getAndIncrement());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.prestartAllCoreThreads();
+        } else {
+            this.pool = null;
+        }
+    }
+
+    /**
+     * Create an executor for a single room. Tasks run in the order they are
+     * submitted, one at a time.
+     *
+     * @return A new serial executor, or INLINE in ORB mode.
+     */
+    public Executor serial() {
+        return pool == null ? INLINE : new Serial(pool);
+    }
+
+    /**
+     * Wait for queued callbacks to run, and stop the worker threads.
+     *
+     * @param timeout
+     *            Maximum time to wait, in milliseconds.
+     */
+    public void shutdown(final long timeout) {
+        if (pool == null)
+            return;
+
+        pool.shutdown();
+
+        try {
+            if (!pool.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+                SystemIO.warning("Room callbacks still running at shutdown");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Change the number of worker threads, in executor mode. Surplus workers
+     * exit once they finish their current batch.
+     *
+     * @param threads
+     *            The number of worker threads.
+     */
+    public void setThreads(final int threads) {
+        if (pool == null)
+            return;
+
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+            pool.prestartAllCoreThreads();
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Return the number of rooms waiting for a worker thread.
+     *
+     * @return Queued room count, or 0 in ORB mode.
+     */
+    public int depth() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return pool == null ? "Dispatcher: ORB threads" : "Dispatcher: "
+                + pool.getPoolSize() + " workers, " + pool.getQueue().size()
+                + " rooms waiting, " + pool.getCompletedTaskCount()
+                + " batches run";
+    }
+
+    /**
+     * A serial executor for one room, which runs its tasks in batches on the
+     * shared worker pool.
+     */
+    private static final class Serial implements Executor, Runnable {
+
+        private final Executor pool;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Serial(final Executor pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        // Run a batch of tasks
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+
+                for (int i = 0; i < BATCH && (task = tasks.poll()) != null; i++) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        SystemIO.error("Room callback failed!", e);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+
+                if (!tasks.isEmpty()) // More arrived, or the batch was full
+                    schedule();
+            }
+        }
+
+        // Submit the room to the pool, unless it is already waiting or running
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                pool.execute(this);
+        }
+    }
+}
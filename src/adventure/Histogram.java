@@ -0,0 +1,110 @@
+package adventure;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent latency histogram. Values are counted in log-linear buckets:
+ * each power of two is split into 32 buckets, so any recorded value is
+ * reported to within about 3%, over the full range of a long. Recording a
+ * value takes no locks and allocates nothing.
+ *
+ * @author Chris Cummins
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS; // Buckets per power of two
+
+    private final AtomicLongArray counts = new AtomicLongArray(
+            (64 - SUB_BITS + 1) * SUB);
+    private final LongAdder count = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     *
+     * @param value
+     *            The value, e.g. a latency in nanoseconds. Negative values
+     *            are counted as zero.
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+
+        counts.incrementAndGet(index(v));
+        count.increment();
+
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v))
+            ;
+    }
+
+    /**
+     * Return the number of recorded values.
+     *
+     * @return Value count.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Return the largest recorded value.
+     *
+     * @return Maximum value, or 0 if no values have been recorded.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Return a percentile of the recorded values.
+     *
+     * @param percentile
+     *            The percentile, e.g. 99.9.
+     * @return The upper bound of the bucket holding the percentile, or 0 if
+     *         no values have been recorded.
+     */
+    public long percentile(final double percentile) {
+        final long total = count.sum();
+        final long target = Math.max(1,
+                (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+
+        if (total == 0)
+            return 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(upper(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    // The bucket of a non-negative value
+    private static int index(final long v) {
+        if (v < SUB)
+            return (int) v;
+
+        final int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    // The largest value counted in a bucket
+    private static long upper(final int i) {
+        if (i < SUB)
+            return i;
+
+        final int shift = i / SUB - 1;
+        final long sub = i % SUB;
+
+        if (shift + SUB_BITS + 1 >= 63) // The top buckets reach Long.MAX_VALUE
+            return Long.MAX_VALUE;
+
+        return ((SUB + sub + 1) << shift) - 1;
+    }
+}
@@ -1,7 +1,5 @@
 package adventure;
 
-import java.io.Serializable;
-
 import org.omg.PortableServer.POA;
 
 /**
@@ -10,12 +8,10 @@ import org.omg.PortableServer.POA;
  * 
  * @author Chris Cummins
  */
-public class IRoomServerImpl extends IRoomServerPOA implements Serializable {
-
-    private static final long serialVersionUID = -1055484291122727187L;
+public class IRoomServerImpl extends IRoomServerPOA {
 
-    protected transient final POA poa;
-    protected transient CBRoomServer rs;
+    protected final POA poa;
+    protected volatile CBRoomServer rs; // Set once registered
 
     /**
      * Create a new room server implementation.
@@ -47,12 +43,52 @@ public class IRoomServerImpl extends IRoomServerPOA implements Serializable {
      */
     @Override
     public Room find_room(int n) throws room_not_found {
-        SystemIO.log("find_room(" + n + ") invoked");
+        if (SystemIO.isLogging())
+            SystemIO.log("find_room(" + n + ") invoked");
 
         // Fall-through
         throw new room_not_found("Room '" + n + "' doesn't exist!");
     }
 
+    /**
+     * Take a snapshot of the room server state, to be restored at the next
+     * startup.
+     * 
+     * @return The snapshot, or null if there is no state to save.
+     */
+    public Snapshot snapshot() {
+        return null;
+    }
+
+    /**
+     * Build rooms ahead of demand, so that the first players to enter them do
+     * not wait. Called once the room server has registered, before it is
+     * ready.
+     */
+    public void warmUp() {
+    }
+
+    /**
+     * Apply a reloaded configuration to the running room server. Options
+     * which cannot be changed while the server runs are left unchanged.
+     * 
+     * @param cfg
+     *            The new configuration.
+     * @return The number of live rooms changed.
+     * @throws ConfigParseException
+     *             If the configuration cannot be applied.
+     */
+    public int reconfigure(final Config cfg) throws ConfigParseException {
+        return 0;
+    }
+
+    /**
+     * Release any resources held by the room server. Called once during
+     * server shutdown, before unregistering with the game server.
+     */
+    public void shutdown() {
+    }
+
     /**
      * Ping implementation.
      */
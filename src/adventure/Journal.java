@@ -0,0 +1,538 @@
+package adventure;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead journal of room state changes, kept alongside the
+ * save file. Changes made since the last snapshot are recorded in the journal,
+ * and replayed on top of the snapshot at startup, so that a crash loses no
+ * state. The journal is compacted by writing a new snapshot and discarding the
+ * records which it covers.<br/>
+ * <br/>
+ *
+ * Each record holds its type, the room number, and a string of data whose
+ * meaning depends on the type. A change must be made before it is recorded,
+ * so that a snapshot taken after mark() covers every record before the mark.
+ * Replaying a record which the snapshot already covers must be harmless.<br/>
+ * <br/>
+ *
+ * Records are made durable with group commit: a committer thread writes every
+ * pending record and forces them to disk with a single fsync, while threads
+ * appending records wait for the commit which covers them. Each record holds
+ * its own checksum, so a record torn by a crash is detected and discarded.
+ *
+ * @author Chris Cummins
+ */
+public final class Journal {
+
+    /**
+     * Record type: an item was left in a room. The data is the stringified
+     * item reference.
+     */
+    public static final int ITEM_ADDED = 2;
+
+    /**
+     * Record type: an item was taken from a room. The data is the stringified
+     * item reference.
+     */
+    public static final int ITEM_REMOVED = 3;
+
+    /**
+     * Record type: a message was written on a wall. The data is the number of
+     * the message on the wall, a space, and the message.
+     */
+    public static final int WALL_WRITTEN = 4;
+
+    /**
+     * Record type: a game was started. The data is the number to guess, a
+     * space, and the player's user name.
+     */
+    public static final int GAME_STARTED = 5;
+
+    /**
+     * Record type: a game was won or abandoned. The data is the player's user
+     * name.
+     */
+    public static final int GAME_FINISHED = 6;
+
+    /**
+     * A callback used to replay journal records.
+     */
+    public interface Handler {
+
+        /**
+         * Apply a journal record.
+         *
+         * @param type
+         *            The record type.
+         * @param room
+         *            The room number.
+         * @param data
+         *            The record data.
+         */
+        public void replay(final int type, final int room, final String data);
+    }
+
+    private static final int MAGIC = 0x41445641; // "ADVJ"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+
+    // Size of a record without its data: type, room, length and checksum
+    private static final int RECORD_OVERHEAD = 16;
+
+    // Maximum size of the data of a record, in bytes
+    private static final int MAX_DATA = 1 << 16;
+
+    // Size of the pending record buffers, in bytes
+    private static final int BUFFER_SIZE = 1 << 18;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File save;
+    private final File file;
+
+    // Held while writing to the journal file, or replacing it
+    private final Object commitLock = new Object();
+    private final Object compactLock = new Object();
+    private FileChannel channel;
+    private long written; // Position written to the file, under commitLock
+
+    // Pending records, guarded by the journal lock
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // Positions in the journal, guarded by the journal lock. A position is
+    // the number of bytes of records appended before it, counted from the
+    // start of the journal file when it was opened.
+    private long appended; // Position after the last record appended
+    private long durable; // Position up to which records are on disk
+    private long first; // Position of the start of the journal file
+    private long records; // Records appended
+    private long committed; // Records on disk
+    private boolean closed;
+    private IOException failure;
+
+    private final Thread committer;
+
+    /**
+     * Open the journal of a save file, creating it if it does not exist. Any
+     * torn record at the end of the journal is discarded, as is a journal of
+     * an earlier version.
+     *
+     * @param save
+     *            The save file. The journal is kept next to it, with the
+     *            suffix ".journal".
+     * @throws IOException
+     *             In case of error while opening the journal.
+     */
+    public Journal(final File save) throws IOException {
+        this.save = save;
+        this.file = new File(save.getPath() + ".journal");
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        if (channel.size() < HEADER_SIZE) {
+            writeHeader(channel);
+        } else {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+
+            if (header.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("Invalid journal '" + file.getPath()
+                        + "'!");
+            } else if (header.getInt(4) != VERSION) {
+                SystemIO.warning("Discarding journal of version "
+                        + header.getInt(4));
+                channel.truncate(0);
+                writeHeader(channel);
+            }
+        }
+
+        final long valid = validBytes();
+        final long size = HEADER_SIZE + valid;
+
+        this.appended = this.durable = this.written = valid;
+        if (size < channel.size()) {
+            SystemIO.warning("Discarding torn journal record");
+            channel.truncate(size);
+        }
+        channel.position(size);
+
+        this.committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commit();
+            }
+        }, "journal-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Replay every record in the journal. This must be called before any
+     * records are appended.
+     *
+     * @param handler
+     *            The callback to apply each record with.
+     * @return The number of records replayed.
+     * @throws IOException
+     *             In case of error while reading the journal.
+     */
+    public synchronized long replay(final Handler handler) throws IOException {
+        final DataInputStream in = open();
+        long replayed = 0;
+
+        try {
+            for (long position = 0; position < appended; replayed++) {
+                final int type = in.readInt();
+                final int room = in.readInt();
+                final byte[] data = new byte[in.readInt()];
+
+                in.readFully(data);
+                in.readInt(); // Checksum, verified on open
+
+                handler.replay(type, room, new String(data, UTF8));
+                position += RECORD_OVERHEAD + data.length;
+            }
+        } finally {
+            in.close();
+        }
+
+        return replayed;
+    }
+
+    /**
+     * Append a record, and wait until it has been forced to disk.
+     *
+     * @param type
+     *            The record type.
+     * @param room
+     *            The room number.
+     * @param data
+     *            The record data.
+     * @throws IOException
+     *             In case the journal could not be written.
+     */
+    public void append(final int type, final int room, final String data)
+            throws IOException {
+        sync(write(type, room, data));
+    }
+
+    /**
+     * Append a record without waiting for it to be forced to disk, e.g. for a
+     * change which is not acknowledged. The record is committed in order with
+     * the records around it.
+     *
+     * @param type
+     *            The record type.
+     * @param room
+     *            The room number.
+     * @param data
+     *            The record data.
+     * @return The position after the record.
+     * @throws IOException
+     *             In case the journal has failed or is closed.
+     */
+    public long write(final int type, final int room, final String data)
+            throws IOException {
+        final byte[] bytes = data.getBytes(UTF8);
+        final int size = RECORD_OVERHEAD + bytes.length;
+
+        if (bytes.length > MAX_DATA)
+            throw new IOException("Journal record too long!");
+
+        synchronized (this) {
+            boolean interrupted = false;
+
+            while (pending.remaining() < size && failure == null && !closed)
+                interrupted |= await();
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            check();
+            pending.putInt(type).putInt(room).putInt(bytes.length).put(bytes)
+                    .putInt(checksum(type, room, bytes));
+            appended += size;
+            records++;
+            notifyAll(); // Wake the committer
+
+            return appended;
+        }
+    }
+
+    /**
+     * Return the size of the records in the journal, which have not been
+     * discarded by compaction.
+     *
+     * @return Journal size, in bytes.
+     */
+    public synchronized long size() {
+        return appended - first;
+    }
+
+    /**
+     * Return a position in the journal, before which every record has been
+     * appended. Any state changes recorded before the position are visible to
+     * a snapshot taken after it is returned.
+     *
+     * @return The current journal position.
+     */
+    public synchronized long mark() {
+        return appended;
+    }
+
+    /**
+     * Return the number of records which have been appended, but not yet
+     * forced to disk.
+     *
+     * @return Pending record count.
+     */
+    public synchronized long pending() {
+        return records - committed;
+    }
+
+    /**
+     * Write a snapshot to the save file, and remove the journal records which
+     * it covers.
+     *
+     * @param snapshot
+     *            The snapshot, taken after mark() was called.
+     * @param mark
+     *            The journal position returned by mark().
+     * @throws IOException
+     *             In case of error while writing the snapshot or journal.
+     */
+    public void compact(final Snapshot snapshot, final long mark)
+            throws IOException {
+        synchronized (compactLock) {
+            synchronized (this) {
+                if (mark < first) // Already compacted past the mark
+                    return;
+            }
+
+            snapshot.write(save);
+            sync(mark);
+
+            synchronized (commitLock) {
+                // Records in the file after the mark
+                final long end = channel.position();
+                long start = end - (written - mark);
+                final File tmp = new File(file.getPath() + ".tmp");
+                final FileChannel next = FileChannel.open(tmp.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+
+                try {
+                    writeHeader(next);
+                    while (start < end)
+                        start += channel.transferTo(start, end - start, next);
+                    next.force(true);
+                } catch (IOException e) {
+                    next.close();
+                    throw e;
+                }
+
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+
+                channel.close();
+                channel = next;
+                channel.position(channel.size());
+
+                synchronized (this) {
+                    first = mark;
+                }
+            }
+        }
+    }
+
+    /**
+     * Commit any pending records, and stop the committer thread.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            committer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            SystemIO.error("Failed to close journal!", e);
+        }
+    }
+
+    // Wait until the records before a position have been forced to disk
+    private synchronized void sync(final long position) throws IOException {
+        boolean interrupted = false;
+
+        while (durable < position && failure == null)
+            interrupted |= await();
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        check();
+    }
+
+    // The committer thread body
+    private void commit() {
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                final ByteBuffer batch;
+                final long upto, count;
+
+                synchronized (this) {
+                    while (pending.position() == 0 && !closed)
+                        interrupted |= await();
+
+                    if (pending.position() == 0 || failure != null)
+                        return; // Closed, and everything committed
+
+                    batch = pending;
+                    pending = writing;
+                    writing = batch;
+                    upto = appended;
+                    count = records;
+                    notifyAll(); // Space for blocked appenders
+                }
+
+                batch.flip();
+
+                try {
+                    synchronized (commitLock) {
+                        while (batch.hasRemaining())
+                            channel.write(batch);
+                        channel.force(false); // One fsync for the whole group
+                        written = upto;
+                    }
+                } catch (IOException e) {
+                    SystemIO.error("Failed to write journal!", e);
+                    synchronized (this) {
+                        failure = e;
+                        notifyAll();
+                    }
+                    return;
+                }
+
+                batch.clear();
+
+                synchronized (this) {
+                    durable = upto;
+                    committed = count;
+                    notifyAll();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // Measure the valid records from the start of the journal
+    private long validBytes() throws IOException {
+        final long size = channel.size() - HEADER_SIZE;
+        final DataInputStream in = open();
+        long position = 0;
+
+        try {
+            while (size - position >= RECORD_OVERHEAD) {
+                final int type = in.readInt();
+                final int room = in.readInt();
+                final int length = in.readInt();
+
+                if (length < 0 || length > MAX_DATA
+                        || size - position < RECORD_OVERHEAD + length)
+                    break;
+
+                final byte[] data = new byte[length];
+                in.readFully(data);
+
+                if (in.readInt() != checksum(type, room, data))
+                    break;
+
+                position += RECORD_OVERHEAD + length;
+            }
+        } catch (EOFException e) {
+            // Torn record
+        } finally {
+            in.close();
+        }
+
+        return position;
+    }
+
+    // Read the journal file from its first record
+    private DataInputStream open() throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+
+        in.skipBytes(HEADER_SIZE);
+
+        return in;
+    }
+
+    private void check() throws IOException {
+        if (failure != null)
+            throw new IOException("Journal failed!", failure);
+        else if (closed)
+            throw new IOException("Journal closed!");
+    }
+
+    // Wait on the journal lock, returning true if interrupted. Callers keep
+    // waiting, and restore the interrupt once their wait is over, so that a
+    // pending interrupt cannot make every later wait return at once.
+    private boolean await() {
+        try {
+            wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    private static void writeHeader(final FileChannel channel)
+            throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining())
+            channel.write(header, header.position());
+        channel.position(HEADER_SIZE);
+    }
+
+    private static int checksum(final int type, final int room,
+            final byte[] data) {
+        final CRC32 crc = new CRC32();
+
+        for (int shift = 24; shift >= 0; shift -= 8)
+            crc.update(type >>> shift);
+        for (int shift = 24; shift >= 0; shift -= 8)
+            crc.update(room >>> shift);
+        crc.update(data);
+
+        return (int) crc.getValue();
+    }
+}
@@ -34,17 +34,12 @@ public abstract class Main {
         try {
             SystemIO.log("Reading configuration file...");
             final Config config = new Config(getConfigPath(args));
-            final RoomServerProcess ps;
-            
-            if (fileExists(getSavePath(args))) {
-                SystemIO.log("Reading save file...");
-                
-                SystemIO.log("Server is starting up...");
-                ps = new RoomServerProcess(config);
-            } else {
-                SystemIO.log("Server is starting up...");
-                ps = new RoomServerProcess(config);
-            }
+            SystemIO.setLevel(config.getLogLevel());
+            SystemIO.setOverflow(config.getLogOverflow());
+            final File save = new File(getSavePath(args));
+
+            SystemIO.log("Server is starting up...");
+            final RoomServerProcess ps = new RoomServerProcess(config, save);
 
             SystemIO.log("Server is ready..");
             ps.run();
@@ -74,8 +69,4 @@ public abstract class Main {
     private static String getSavePath(String[] args) {
         return args.length >= 2 ? args[1] : DEFAULT_SAVE;
     }
-
-    private static boolean fileExists(final String path) {
-        return new File(path).isFile();
-    }
 }
@@ -1,28 +1,134 @@
 package adventure;
 
-import java.io.Serializable;
-import java.util.HashMap;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.omg.CORBA.Policy;
+import org.omg.CORBA.TRANSIENT;
+import org.omg.CORBA.UserException;
+import org.omg.PortableServer.IdAssignmentPolicyValue;
 import org.omg.PortableServer.POA;
-import org.omg.PortableServer.POAPackage.ServantNotActive;
+import org.omg.PortableServer.RequestProcessingPolicyValue;
+import org.omg.PortableServer.ServantRetentionPolicyValue;
+import org.omg.PortableServer.POAPackage.AdapterAlreadyExists;
+import org.omg.PortableServer.POAPackage.InvalidPolicy;
 import org.omg.PortableServer.POAPackage.WrongPolicy;
 
+import adventure.actions.GuessTheNumber;
+import adventure.actions.Message;
+
 /**
  * The maze is a type of room server which offers lazy instantiation of a 2D
  * grid of rooms. Rooms are created on-demand and procedurally. The maze
  * configuration is defined in the maze XML configuration element. The child
- * nodes width and height determine the maze dimensions.
+ * nodes width and height determine the maze dimensions. Rooms may be requested
+ * concurrently, and each room is built exactly once.<br/>
+ * <br/>
+ *
+ * Rooms are served by a child POA which uses a servant manager, so the room
+ * references handed out by find_room() are not bound to a particular servant.
+ * Servants are built on the first request for their room, and evicted once
+ * their room has been empty for a while, or when there are too many of them.
+ * <br/>
+ * <br/>
+ *
+ * Rooms near room 0 may be built in parallel at startup, so that the first
+ * players to enter them do not wait. Rooms built at startup are evicted as
+ * usual if they are not visited before the idle timeout.<br/>
+ * <br/>
+ *
+ * A reloaded configuration may change the room descriptions, the maze seed,
+ * and the server tuning while rooms are live. Live rooms are kept, and only
+ * those whose content changed are updated.<br/>
+ * <br/>
+ *
+ * The maze registers a RoomServerMXBean with the platform MBean server, giving
+ * the figures of this maze alone. Metrics counted for the whole process are
+ * registered by the process, as a MetricsMXBean.
  *
  * @author Chris Cummins
  */
-public final class Maze extends IRoomServerImpl implements Serializable {
+public final class Maze extends IRoomServerImpl {
+
+    // Maximum time to wait for queued messages at shutdown, in milliseconds
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    // Time between eviction sweeps, in milliseconds
+    private static final long SWEEP_INTERVAL = 1000;
+
+    // Size at which the journal is compacted, in bytes
+    private static final long COMPACT_SIZE = 1 << 24;
+
+    // Number of rooms built by each warm-up task
+    private static final int WARM_UP_GRAIN = 64;
+
+    // Name under which the maze metrics are registered, with the maze's user
+    private static final String MBEAN_NAME = "adventure:type=RoomServer,name=";
+
+    private final MazeGeometry geometry;
+    private final Outbox outbox;
+    private final Dispatcher dispatcher;
+    private final RoomFactory factory;
+    private final POA roomPOA;
+    private final RoomLocator locator;
+    private final ScheduledExecutorService sweeper;
+    private final Journal journal;
+
+    private final RoomRegistry<Room> maze; // Room references
+    private final RoomRegistry<RoomImpl> servants;
 
-    private static final long serialVersionUID = 1150705004036881496L;
+    // Saved room states, until their rooms are built
+    private final ConcurrentHashMap<Integer, RoomState> restored = new ConcurrentHashMap<Integer, RoomState>();
 
-    private transient final RoomFactory factory;
-    private final HashMap<Integer, Room> maze;
-    private final int mazeNumberMin;
-    private final int mazeNumberMax;
+    private Config cfg; // The running configuration, guarded by this
+
+    private final ObjectName mbean; // Null if registration failed
+
+    // Builds room references for the registry
+    private final RoomRegistry.Builder<Room> references = new RoomRegistry.Builder<Room>() {
+        @Override
+        public Room build(final int n) throws UserException {
+            return RoomHelper.narrow(roomPOA.create_reference_with_id(
+                    RoomLocator.oid(n), RoomHelper.id()));
+        }
+    };
+
+    // Builds room servants on demand
+    private final RoomRegistry.Builder<RoomImpl> rooms = new RoomRegistry.Builder<RoomImpl>() {
+        @Override
+        public RoomImpl build(final int n) {
+            final RoomImpl room = generate(n);
+
+            servants.mark(n, RoomRegistry.VISITED);
+
+            return room;
+        }
+    };
+
+    // Builds room servants at warm-up, which does not count as a visit
+    private final RoomRegistry.Builder<RoomImpl> warmRooms = new RoomRegistry.Builder<RoomImpl>() {
+        @Override
+        public RoomImpl build(final int n) {
+            return generate(n);
+        }
+    };
 
     /**
      * Generate a new maze using the given configuration. Maze properties are
@@ -31,25 +137,108 @@ public final class Maze extends IRoomServerImpl implements Serializable {
      * @param cfg
      *            The configuration to use.
      * @param poa
-     *            A portable object adapter.
+     *            A portable object adapter, under which the room adapter is
+     *            created.
+     * @throws ConfigParseException
+     *             In case of error while parsing the configuration.
+     * @throws AdapterAlreadyExists
+     *             In case the room adapter has already been created.
+     * @throws InvalidPolicy
+     *             In case the ORB does not support the room adapter policies.
+     * @throws WrongPolicy
+     *             In case the servant manager cannot be set.
+     */
+    public Maze(Config cfg, POA poa) throws ConfigParseException,
+            AdapterAlreadyExists, InvalidPolicy, WrongPolicy {
+        this(cfg, poa, null, null);
+    }
+
+    /**
+     * Restore a maze from a snapshot and journal. The maze is generated from
+     * the room descriptions of the configuration, and from its seed if one is
+     * set, or else from the seed of the snapshot. The visited rooms and room
+     * states of the snapshot are restored if the maze dimensions are
+     * unchanged. The journal is then replayed on top of the snapshot, and
+     * records further changes.
+     *
+     * @param cfg
+     *            The configuration to use.
+     * @param poa
+     *            A portable object adapter, under which the room adapter is
+     *            created.
+     * @param snapshot
+     *            The saved maze, or null to generate a new maze.
+     * @param journal
+     *            The journal of changes since the snapshot, or null to run
+     *            without a journal.
      * @throws ConfigParseException
      *             In case of error while parsing the configuration.
+     * @throws AdapterAlreadyExists
+     *             In case the room adapter has already been created.
+     * @throws InvalidPolicy
+     *             In case the ORB does not support the room adapter policies.
+     * @throws WrongPolicy
+     *             In case the servant manager cannot be set.
      */
-    public Maze(Config cfg, POA poa) throws ConfigParseException {
+    public Maze(Config cfg, POA poa, Snapshot snapshot, Journal journal)
+            throws ConfigParseException, AdapterAlreadyExists, InvalidPolicy,
+            WrongPolicy {
         super(poa);
 
-        final int mazeSize = cfg.getMazeWidth() * cfg.getMazeHeight();
+        this.cfg = cfg;
+        this.geometry = new MazeGeometry(cfg.getMazeWidth(),
+                cfg.getMazeHeight(), cfg.getPartition());
+        this.outbox = new Outbox(cfg.getSenderThreads(),
+                cfg.getQueueCapacity(), cfg.getCoalesceWindow(),
+                cfg.getScrollDelay());
+        this.dispatcher = new Dispatcher(cfg.getExecutionMode(),
+                cfg.getWorkerThreads(), cfg.getWorkerQueue());
+        this.factory = new RoomFactory(cfg, outbox, dispatcher, geometry,
+                seed(cfg, snapshot), cfg.getDescriptions());
+        this.maze = new RoomRegistry<Room>(geometry.min, geometry.max);
+        this.servants = new RoomRegistry<RoomImpl>(geometry.min, geometry.max);
+
+        this.journal = journal;
+
+        if (snapshot == null && !cfg.isMazeSeedSet())
+            SystemIO.warning("Maze seed is not set, generating '"
+                    + cfg.getUser() + "' from random seed "
+                    + cfg.getMazeSeed());
+
+        if ((snapshot == null || restore(snapshot)) && journal != null)
+            replay(journal);
+
+        this.locator = new RoomLocator(servants, rooms, cfg.getMaxRooms(),
+                cfg.getIdleTimeout());
+        this.roomPOA = createRoomPOA(poa, locator, cfg.getUser());
+        this.sweeper = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "maze-sweeper");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                locator.sweep();
+                compact();
+            }
+        }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
 
-        this.factory = new RoomFactory(cfg, poa);
-        this.maze = new HashMap<Integer, Room>();
-        this.mazeNumberMin = -mazeSize / 2;
-        this.mazeNumberMax = mazeSize / 2;
+        this.mbean = register(new Monitor(), cfg.getUser());
+
+        SystemIO.log("Maze of " + maze.capacity() + " rooms, "
+                + bytesPerRoom() + " bytes per room reserved");
     }
 
     /**
      * Attempts to return a given room within the maze. If the room number is
-     * valid, a check is made to ensure the room exists. If it doesn't, it is
-     * constructed, and then returned to the user.
+     * valid, a reference to the room is returned. The room itself is built
+     * when the first request is made on it.
      *
      * @param n
      *            The room number being requested.
@@ -59,13 +248,9 @@ public final class Maze extends IRoomServerImpl implements Serializable {
     @Override
     public Room find_room(int n) throws room_not_found {
         try {
-            if (roomNumberIsWithinBounds(n)) {
-                if (!maze.containsKey(n))
-                    maze.put(n, factory.next(rs, n)); // Lazy instantiation
-
-                return maze.get(n);
-            }
-        } catch (ServantNotActive | WrongPolicy e) {
+            if (maze.contains(n))
+                return maze.get(n, references); // Lazy instantiation
+        } catch (UserException e) {
             SystemIO.error("getRoom() failed!", e);
         }
 
@@ -73,9 +258,481 @@ public final class Maze extends IRoomServerImpl implements Serializable {
         return super.find_room(n);
     }
 
-    // Return whether a room index is "in bounds".
-    private boolean roomNumberIsWithinBounds(final int n) {
-        return n >= mazeNumberMin && n <= mazeNumberMax;
+    /**
+     * Return the memory reserved by the maze for each room, excluding the
+     * rooms which have been built.
+     *
+     * @return Bytes per room, to two decimal places.
+     */
+    public String bytesPerRoom() {
+        return String.format("%.2f",
+                (double) (maze.footprint() + servants.footprint())
+                        / maze.capacity());
     }
 
+    /**
+     * Take a snapshot of the maze.
+     *
+     * @return The maze seed, room descriptions, visited rooms and room
+     *         states.
+     */
+    @Override
+    public synchronized Snapshot snapshot() {
+        final BitSet visited = new BitSet(servants.capacity());
+        final List<RoomState> rooms = new ArrayList<RoomState>();
+
+        for (int n = geometry.min; n <= geometry.max; n++) {
+            if ((servants.state(n) & RoomRegistry.VISITED) != 0)
+                visited.set(n - geometry.min);
+        }
+
+        servants.forEach(new RoomRegistry.Visitor<RoomImpl>() {
+            @Override
+            public void visit(final int n, final RoomImpl room) {
+                final RoomState state = new RoomState(n);
+
+                room.save(state);
+                if (!state.isEmpty())
+                    rooms.add(state);
+            }
+        });
+
+        for (final RoomState state : restored.values()) {
+            if (servants.peek(state.room) == null) // Not built since restart
+                rooms.add(state);
+        }
+
+        return new Snapshot(factory.seed(), geometry.width, geometry.height,
+                factory.descriptions(), visited,
+                rooms.toArray(new RoomState[rooms.size()]));
+    }
+
+    /**
+     * Build the room references and servants of the region around room 0
+     * given by the warm-up option, on a fork-join pool. At most max-rooms
+     * rooms are built, nearest first, so that none are evicted straight away.
+     */
+    @Override
+    public void warmUp() {
+        final Config cfg;
+
+        synchronized (this) {
+            cfg = this.cfg;
+        }
+
+        if (cfg.getWarmUp() == 0)
+            return;
+
+        if (rs == null) { // Rooms keep the callback they are built with
+            SystemIO.error("Not registered, rooms are not warmed up");
+            return;
+        }
+
+        final int[] region = geometry.region(cfg.getWarmUp(),
+                cfg.getMaxRooms());
+        final ForkJoinPool pool = new ForkJoinPool();
+        final long start = System.nanoTime();
+        final int failed;
+
+        try {
+            failed = pool.invoke(new WarmUp(region, 0, region.length));
+        } finally {
+            pool.shutdown();
+        }
+
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        SystemIO.log(String.format(Locale.ROOT,
+                "Warmed up %d rooms in %.1f ms (%.0f rooms/s) on %d threads",
+                region.length - failed, seconds * 1000, (region.length - failed)
+                        / seconds, pool.getParallelism()));
+        if (failed > 0)
+            SystemIO.warning("Failed to warm up " + failed + " rooms");
+    }
+
+    /**
+     * Apply a reloaded configuration. Tuning options take effect immediately.
+     * If the seed or room descriptions have changed, they are swapped in
+     * atomically, and the live rooms whose descriptions changed are updated in
+     * place, without removing their players.
+     *
+     * @param cfg
+     *            The new configuration.
+     * @return The number of live rooms changed.
+     * @throws ConfigParseException
+     *             If the new configuration has no room descriptions.
+     */
+    @Override
+    public synchronized int reconfigure(final Config cfg)
+            throws ConfigParseException {
+        final Config old = this.cfg;
+        final int[] changed = new int[1];
+
+        warnRestart(old, cfg);
+
+        // Room content, only if it changed. A maze generated from a random
+        // seed keeps it until a seed is set.
+        final long seed = cfg.isMazeSeedSet() ? cfg.getMazeSeed() : factory
+                .seed();
+
+        if (seed != factory.seed()
+                || !Arrays.equals(cfg.getDescriptions(), old.getDescriptions())) {
+            if (factory.setContent(seed, cfg.getDescriptions())) {
+                servants.forEach(new RoomRegistry.Visitor<RoomImpl>() {
+                    @Override
+                    public void visit(final int n, final RoomImpl room) {
+                        if (factory.refresh(room))
+                            changed[0]++;
+                    }
+                });
+            }
+        }
+
+        outbox.setWindow(cfg.getCoalesceWindow());
+        outbox.setScrollDelay(cfg.getScrollDelay());
+        dispatcher.setThreads(cfg.getWorkerThreads());
+        locator.setLimits(cfg.getMaxRooms(), cfg.getIdleTimeout());
+
+        this.cfg = cfg;
+        return changed[0];
+    }
+
+    /**
+     * Run any queued callbacks, and deliver any queued messages before
+     * shutdown.
+     */
+    @Override
+    public void shutdown() {
+        sweeper.shutdownNow();
+        unregister();
+        dispatcher.shutdown(SHUTDOWN_TIMEOUT);
+        SystemIO.log(dispatcher.toString());
+        outbox.shutdown(SHUTDOWN_TIMEOUT);
+        SystemIO.log(outbox.toString());
+    }
+
+    // Warn about changed options which only take effect at restart
+    private static void warnRestart(final Config old, final Config cfg) {
+        final StringBuilder s = new StringBuilder();
+
+        restart(s, "credentials", !cfg.getGameServerHost().equals(
+                old.getGameServerHost())
+                || !cfg.getUser().equals(old.getUser())
+                || !cfg.getSecretHash().equals(old.getSecretHash()));
+        restart(s, "maze size", cfg.getMazeWidth() != old.getMazeWidth()
+                || cfg.getMazeHeight() != old.getMazeHeight());
+        restart(s, "maze regions", cfg.getPartition() == null ? old
+                .getPartition() != null : !cfg.getPartition().equals(
+                old.getPartition()));
+        restart(s, "senders", cfg.getSenderThreads() != old.getSenderThreads());
+        restart(s, "queue-capacity",
+                cfg.getQueueCapacity() != old.getQueueCapacity());
+        restart(s, "execution",
+                cfg.getExecutionMode() != old.getExecutionMode());
+        restart(s, "worker-queue", cfg.getWorkerQueue() != old.getWorkerQueue());
+
+        if (s.length() > 0)
+            SystemIO.warning("Changes to " + s + " take effect at restart");
+    }
+
+    private static void restart(final StringBuilder s, final String option,
+            final boolean changed) {
+        if (changed)
+            s.append(s.length() > 0 ? ", " : "").append(option);
+    }
+
+    // The seed to generate a maze from. A seed set in the configuration wins
+    // over that of the snapshot.
+    private static long seed(final Config cfg, final Snapshot snapshot) {
+        if (snapshot == null)
+            return cfg.getMazeSeed();
+
+        final long seed = cfg.isMazeSeedSet() ? cfg.getMazeSeed()
+                : snapshot.seed;
+
+        if (seed != snapshot.seed
+                || !Arrays.equals(cfg.getDescriptions(), snapshot.descriptions))
+            SystemIO.warning("Maze seed or room descriptions have changed "
+                    + "since the save, rooms are generated from the "
+                    + "configuration");
+
+        return seed;
+    }
+
+    // Restore the visited rooms and room states of a snapshot. Returns false
+    // if the maze size has changed, so that the journal does not apply.
+    private boolean restore(final Snapshot snapshot) {
+        if (snapshot.width != geometry.width
+                || snapshot.height != geometry.height) {
+            SystemIO.warning("Maze size has changed since the save, "
+                    + "visited rooms and room states are not restored");
+            return false;
+        }
+
+        final BitSet visited = snapshot.visited;
+
+        for (int i = visited.nextSetBit(0); i >= 0 && i < geometry.rooms(); i = visited
+                .nextSetBit(i + 1))
+            servants.mark(geometry.min + i, RoomRegistry.VISITED);
+
+        for (final RoomState state : snapshot.rooms) {
+            if (servants.contains(state.room))
+                restored.put(state.room, state);
+        }
+
+        SystemIO.log("Restored maze of " + visited.cardinality()
+                + " visited rooms, " + restored.size() + " with saved state");
+        return true;
+    }
+
+    // Generate a room, restoring any saved state
+    private RoomImpl generate(final int n) {
+        final RoomImpl room = factory.next(callback(), n);
+        final RoomState state = restored.get(n);
+
+        room.setJournal(journal);
+
+        if (state != null) {
+            room.restore(state);
+            restored.remove(n);
+        }
+
+        return room;
+    }
+
+    // Replay the journal on top of the restored room states
+    private void replay(final Journal journal) {
+        final String prefix = cfg.getFilePrefix();
+
+        try {
+            final long records = journal.replay(new Journal.Handler() {
+                @Override
+                public void replay(final int type, final int room,
+                        final String data) {
+                    try {
+                        if (servants.contains(room))
+                            apply(state(room), type, data, prefix);
+                    } catch (RuntimeException e) {
+                        SystemIO.error("Invalid journal record!", e);
+                    }
+                }
+            });
+
+            SystemIO.log("Replayed " + records + " journal records");
+        } catch (IOException e) {
+            SystemIO.error("Failed to replay journal!", e);
+        }
+
+        // Drop the rooms whose changes were all undone
+        for (final RoomState state : restored.values()) {
+            if (state.isEmpty())
+                restored.remove(state.room);
+        }
+    }
+
+    // The restored state of a room, created for the journal if required
+    private RoomState state(final int room) {
+        RoomState state = restored.get(room);
+
+        if (state == null) {
+            state = new RoomState(room);
+            restored.put(room, state);
+        }
+
+        return state;
+    }
+
+    // Apply a journal record to the state of a room
+    private static void apply(final RoomState state, final int type,
+            final String data, final String prefix) {
+        switch (type) {
+        case Journal.ITEM_ADDED:
+            state.items.add(data);
+            break;
+        case Journal.ITEM_REMOVED:
+            state.items.remove(data);
+            break;
+        case Journal.WALL_WRITTEN:
+            state.walls = Math.max(state.walls,
+                    Message.recover(prefix, state.room, data));
+            break;
+        case Journal.GAME_STARTED:
+        case Journal.GAME_FINISHED:
+            GuessTheNumber.replay(state.games, type, data);
+            break;
+        default:
+            SystemIO.warning("Unknown journal record type " + type);
+        }
+    }
+
+    // Return the game server callback, which a room keeps once built with it
+    private CBRoomServer callback() {
+        final CBRoomServer rs = this.rs;
+
+        if (rs == null)
+            throw new TRANSIENT("Room server is not registered");
+
+        return rs;
+    }
+
+    // Replace the journal with a snapshot once it has grown too long
+    private void compact() {
+        if (journal == null || journal.size() < COMPACT_SIZE)
+            return;
+
+        try {
+            final long mark = journal.mark();
+
+            journal.compact(snapshot(), mark);
+            SystemIO.log("Compacted journal into snapshot");
+        } catch (IOException e) {
+            SystemIO.error("Failed to compact journal!", e);
+        }
+    }
+
+    // Register the maze metrics with the platform MBean server
+    private static ObjectName register(final RoomServerMXBean monitor,
+            final String user) {
+        try {
+            final ObjectName name = new ObjectName(MBEAN_NAME
+                    + ObjectName.quote(user));
+
+            ManagementFactory.getPlatformMBeanServer().registerMBean(monitor,
+                    name);
+
+            return name;
+        } catch (JMException e) {
+            SystemIO.warning("Failed to register metrics MBean: " + e);
+            return null;
+        }
+    }
+
+    // Stop publishing metrics
+    private void unregister() {
+        if (mbean != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(mbean);
+            } catch (JMException e) {
+                SystemIO.warning("Failed to unregister metrics MBean: " + e);
+            }
+        }
+    }
+
+    // Create the adapter for room objects, using a servant locator. Each maze
+    // served by the process has its own adapter, named after its user.
+    private static POA createRoomPOA(final POA parent,
+            final RoomLocator locator, final String user)
+            throws AdapterAlreadyExists, InvalidPolicy, WrongPolicy {
+        final Policy[] policies = new Policy[] {
+                parent.create_request_processing_policy(RequestProcessingPolicyValue.USE_SERVANT_MANAGER),
+                parent.create_servant_retention_policy(ServantRetentionPolicyValue.NON_RETAIN),
+                parent.create_id_assignment_policy(IdAssignmentPolicyValue.USER_ID) };
+        final POA poa = parent.create_POA("rooms-" + user,
+                parent.the_POAManager(), policies);
+
+        poa.set_servant_manager(locator);
+
+        return poa;
+    }
+
+    /**
+     * Builds a range of a warm-up region, splitting it between threads.
+     * Returns the number of rooms which failed to build.
+     */
+    private final class WarmUp extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 2470934187316283011L;
+
+        private final int[] region;
+        private final int start, end;
+
+        WarmUp(final int[] region, final int start, final int end) {
+            this.region = region;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (end - start > WARM_UP_GRAIN) {
+                final int mid = (start + end) >>> 1;
+                final WarmUp left = new WarmUp(region, start, mid);
+
+                left.fork();
+                return new WarmUp(region, mid, end).compute() + left.join();
+            }
+
+            int failed = 0;
+
+            for (int i = start; i < end; i++) {
+                try {
+                    maze.get(region[i], references);
+                    servants.get(region[i], warmRooms);
+                } catch (UserException | RuntimeException e) {
+                    failed++;
+                }
+            }
+
+            return failed;
+        }
+    }
+
+    /**
+     * The maze metrics, as seen by JMX clients.
+     */
+    private final class Monitor implements RoomServerMXBean {
+
+        @Override
+        public int getLiveServants() {
+            return servants.size();
+        }
+
+        @Override
+        public int getActiveRooms() {
+            return getPlayersPerRoom().size();
+        }
+
+        @Override
+        public int getPlayers() {
+            int players = 0;
+
+            for (final int n : getPlayersPerRoom().values())
+                players += n;
+
+            return players;
+        }
+
+        @Override
+        public Map<Integer, Integer> getPlayersPerRoom() {
+            final TreeMap<Integer, Integer> rooms = new TreeMap<Integer, Integer>();
+
+            servants.forEach(new RoomRegistry.Visitor<RoomImpl>() {
+                @Override
+                public void visit(final int n, final RoomImpl room) {
+                    final int players = room.playerCount();
+
+                    if (players > 0)
+                        rooms.put(n, players);
+                }
+            });
+
+            return rooms;
+        }
+
+        @Override
+        public int getOutboxDepth() {
+            return outbox.depth();
+        }
+
+        @Override
+        public int getDispatcherDepth() {
+            return dispatcher.depth();
+        }
+
+        @Override
+        public long getJournalDepth() {
+            return journal == null ? 0 : journal.pending();
+        }
+    }
 }
@@ -0,0 +1,250 @@
+package adventure;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The shape of a maze. A maze is a grid of rooms, numbered row by row, with
+ * room 0 at the centre. A single geometry object is shared by every room in a
+ * maze, so rooms need not keep their own copies of the maze dimensions.<br/>
+ * <br/>
+ *
+ * A partitioned maze is served by several room servers, each serving one
+ * region. Each region is numbered as a maze of its own, and a move off the edge
+ * of a region leads to the room at the far edge of the adjacent region, in the
+ * same row or column.
+ *
+ * @author Chris Cummins
+ */
+public final class MazeGeometry {
+
+    /**
+     * Relative directions, in the order used by neighbour().
+     */
+    public static final int NORTH = 0, EAST = 1, SOUTH = 2, WEST = 3;
+
+    // Dimensions of the maze, or of the region served if partitioned
+    public final int width;
+    public final int height;
+    public final int size;
+
+    // Room number range, inclusive
+    public final int min;
+    public final int max;
+
+    // A room number which is never valid
+    public final int invalidNo;
+
+    // The regions of a partitioned maze, or null
+    public final Partition partition;
+
+    /**
+     * Create the geometry for a maze of the given dimensions.
+     *
+     * @param width
+     *            The maze width.
+     * @param height
+     *            The maze height.
+     */
+    public MazeGeometry(final int width, final int height) {
+        this(width, height, null);
+    }
+
+    /**
+     * Create the geometry for one region of a partitioned maze.
+     *
+     * @param width
+     *            The width of the whole maze, a multiple of the partition's
+     *            columns.
+     * @param height
+     *            The height of the whole maze, a multiple of the partition's
+     *            rows.
+     * @param partition
+     *            The partition, or null if the maze is not partitioned.
+     */
+    public MazeGeometry(final int width, final int height,
+            final Partition partition) {
+        this.partition = partition;
+        this.width = partition != null ? width / partition.columns : width;
+        this.height = partition != null ? height / partition.rows : height;
+        this.size = this.width * this.height;
+        this.min = -size / 2;
+        this.max = size / 2;
+        this.invalidNo = size + 1;
+    }
+
+    /**
+     * Return whether a room number lies within the maze.
+     *
+     * @param n
+     *            The room number.
+     * @return True if the room number is valid.
+     */
+    public boolean contains(final int n) {
+        return n >= min && n <= max;
+    }
+
+    /**
+     * Return the number of rooms in the maze.
+     *
+     * @return Room count.
+     */
+    public int rooms() {
+        return max - min + 1;
+    }
+
+    /**
+     * Return the rooms within a given walking distance of room 0, nearest
+     * first.
+     *
+     * @param radius
+     *            The maximum number of moves from room 0.
+     * @param limit
+     *            The maximum number of rooms to return.
+     * @return Room numbers, in order of distance from room 0.
+     */
+    public int[] region(final int radius, final int limit) {
+        final int[] rooms = new int[Math.min(limit, rooms())];
+        final BitSet seen = new BitSet(rooms());
+        int head = 0, tail = 0;
+
+        if (rooms.length == 0 || !contains(0))
+            return new int[0];
+
+        // Breadth first search, one ring of rooms at a time
+        rooms[tail++] = 0;
+        seen.set(-min);
+
+        for (int distance = 0; distance < radius && head < tail; distance++) {
+            final int ring = tail;
+
+            for (; head < ring; head++) {
+                for (int d = NORTH; d <= WEST; d++) {
+                    final int n = neighbour(rooms[head], d);
+
+                    if (n != invalidNo && !seen.get(n - min)) {
+                        if (tail == rooms.length)
+                            return rooms;
+
+                        seen.set(n - min);
+                        rooms[tail++] = n;
+                    }
+                }
+            }
+        }
+
+        return Arrays.copyOf(rooms, tail);
+    }
+
+    /**
+     * Return the direction with a given name.
+     *
+     * @param name
+     *            A direction name, e.g. "north".
+     * @return One of NORTH, EAST, SOUTH or WEST, or -1 if the name is not a
+     *         relative direction.
+     */
+    public static int direction(final String name) {
+        switch (name) {
+        case "north":
+            return NORTH;
+        case "east":
+            return EAST;
+        case "south":
+            return SOUTH;
+        case "west":
+            return WEST;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Return the directions in which a given room has neighbours.
+     *
+     * @param n
+     *            The room number.
+     * @return A bit mask with bit d set if there is a room in direction d.
+     */
+    public int exits(final int n) {
+        int mask = 0;
+
+        for (int d = NORTH; d <= WEST; d++) {
+            if (neighbour(n, d) != invalidNo
+                    || (partition != null && partition.neighbour(d) != null))
+                mask |= 1 << d;
+        }
+
+        return mask;
+    }
+
+    /**
+     * Return the room reached by moving from a given room, which may be in an
+     * adjacent region of a partitioned maze.
+     *
+     * @param user
+     *            The user serving the given room.
+     * @param n
+     *            The room number.
+     * @param direction
+     *            One of NORTH, EAST, SOUTH or WEST.
+     * @return The destination. Its room number is invalidNo if there is no
+     *         room in that direction.
+     */
+    public RoomID destination(final String user, final int n,
+            final int direction) {
+        final int m = neighbour(n, direction);
+        final String next = partition != null && m == invalidNo ? partition
+                .neighbour(direction) : null;
+
+        if (next == null)
+            return new RoomID(user, m);
+
+        // Enter the adjacent region at the far edge of this row or column
+        final int back = (direction + 2) % 4;
+        final int steps = back == EAST || back == WEST ? width - 1
+                : height - 1;
+
+        return new RoomID(next, walk(n, back, steps));
+    }
+
+    /**
+     * Return the number of the room adjacent to a given room.
+     *
+     * @param n
+     *            The room number.
+     * @param direction
+     *            One of NORTH, EAST, SOUTH or WEST.
+     * @return The adjacent room number, or invalidNo if there is no room in
+     *         that direction.
+     */
+    public int neighbour(final int n, final int direction) {
+        final int x = (n + width / 2) % width;
+
+        switch (direction) {
+        case NORTH:
+            return n + width <= max ? n + width : invalidNo;
+        case EAST:
+            return (x + 1) % width > x && (n + 1) <= max ? n + 1 : invalidNo;
+        case SOUTH:
+            return n - width >= min ? n - width : invalidNo;
+        case WEST:
+            return (x - 1) % width < x && (n - 1) >= min ? n - 1 : invalidNo;
+        default:
+            return invalidNo;
+        }
+    }
+
+    // Move up to a number of steps in one direction, stopping at the edge
+    private int walk(int n, final int direction, final int steps) {
+        for (int i = 0; i < steps; i++) {
+            final int m = neighbour(n, direction);
+
+            if (m == invalidNo)
+                break;
+            n = m;
+        }
+
+        return n;
+    }
+}
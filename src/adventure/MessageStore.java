@@ -0,0 +1,347 @@
+package adventure;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An append-only store of wall messages, one message per line. Messages are
+ * kept in a sequence of segment files: the first segment is the original
+ * message log, e.g. "0-messages.log", and later segments add a numeric suffix,
+ * e.g. "0-messages.log.1". A new segment is started once the current one
+ * reaches SEGMENT_SIZE bytes.<br/>
+ * <br/>
+ *
+ * The offset of every message is indexed in memory when the store is opened,
+ * and the most recent messages are cached, so reading the latest messages
+ * needs no I/O. Older messages are read through read-only memory mappings of
+ * the segments. Each segment is mapped at most twice, once when it is opened
+ * and once when it is sealed, so mappings are never replaced as a segment
+ * grows. Messages of the current segment that are neither cached nor mapped
+ * are read from the file. Appends are serialised and written through a single
+ * open channel, and readers never block writers.
+ *
+ * @author Chris Cummins
+ */
+public final class MessageStore {
+
+    // Size at which a new segment is started, in bytes
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    // Number of recent messages kept in memory
+    private static final int CACHE_SIZE = 256;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Open stores, keyed by path, so that every room shares one writer
+    private static final ConcurrentHashMap<String, MessageStore> stores = new ConcurrentHashMap<String, MessageStore>();
+
+    private final File base;
+
+    // Segments, oldest first. Replaced on write when a segment is added.
+    private volatile Segment[] segments;
+    private volatile long count; // Published message count
+
+    // Ring of recent messages, indexed by message number
+    private final AtomicReferenceArray<String> cache = new AtomicReferenceArray<String>(
+            CACHE_SIZE);
+
+    // Owned by writers, under the store lock
+    private FileChannel channel;
+
+    private MessageStore(final File base) throws IOException {
+        final ArrayList<Segment> list = new ArrayList<Segment>();
+        long n = 0;
+
+        for (int i = 0;; i++) {
+            final File file = segmentFile(base, i);
+
+            if (!file.isFile())
+                break;
+
+            final Segment s = Segment.open(file, n);
+            list.add(s);
+            n += s.count;
+        }
+
+        if (list.isEmpty())
+            list.add(new Segment(segmentFile(base, 0), 0));
+
+        this.base = base;
+        this.segments = list.toArray(new Segment[list.size()]);
+        this.count = n;
+
+        for (long i = Math.max(0, n - CACHE_SIZE); i < n; i++)
+            cache.set((int) (i % CACHE_SIZE), read(i));
+    }
+
+    /**
+     * Return the message store for a given file, opening it if required.
+     *
+     * @param file
+     *            The path of the first segment.
+     * @return The message store.
+     * @throws IOException
+     *             In case of error while indexing the store.
+     */
+    public static MessageStore open(final File file) throws IOException {
+        final String key = file.getAbsolutePath();
+        MessageStore store = stores.get(key);
+
+        if (store == null) {
+            synchronized (stores) {
+                store = stores.get(key);
+                if (store == null) {
+                    store = new MessageStore(file);
+                    stores.put(key, store);
+                }
+            }
+        }
+
+        return store;
+    }
+
+    /**
+     * Return the number of messages in the store.
+     *
+     * @return Message count.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Append a message to the store. Line breaks within the message are
+     * replaced with spaces.
+     *
+     * @param message
+     *            The message.
+     * @return The number of the message.
+     * @throws IOException
+     *             In case of error while writing the message.
+     */
+    public synchronized long append(final String message) throws IOException {
+        final String line = message.replace('\n', ' ').replace('\r', ' ');
+        final ByteBuffer bytes = UTF8.encode(line + "\n");
+        Segment s = segments[segments.length - 1];
+
+        if (s.size > 0 && s.size + bytes.remaining() > SEGMENT_SIZE)
+            s = roll(s);
+
+        if (channel == null) {
+            channel = new RandomAccessFile(s.file, "rw").getChannel();
+            channel.truncate(s.size); // Discard any partial line
+        }
+
+        final int offset = s.size;
+        final int length = bytes.remaining();
+
+        while (bytes.hasRemaining())
+            channel.write(bytes, offset + length - bytes.remaining());
+
+        s.add(offset, length);
+        cache.set((int) (count % CACHE_SIZE), line);
+        return count++; // Publish
+    }
+
+    /**
+     * Return a range of messages, oldest first.
+     *
+     * @param from
+     *            The number of the first message, inclusive.
+     * @param to
+     *            The number of the last message, exclusive.
+     * @return The messages.
+     * @throws IOException
+     *             In case of error while reading the messages.
+     */
+    public String[] read(final long from, final long to) throws IOException {
+        final long n = count;
+        final long end = Math.min(to, n);
+        final String[] messages = new String[(int) Math.max(0, end - from)];
+
+        for (int i = 0; i < messages.length; i++) {
+            final long m = from + i;
+            final String cached = n - m <= CACHE_SIZE ? cache
+                    .get((int) (m % CACHE_SIZE)) : null;
+
+            // The slot may have been reused since the count was read
+            messages[i] = cached != null && count - m < CACHE_SIZE ? cached
+                    : read(m);
+        }
+
+        return messages;
+    }
+
+    // Read a single message from its segment
+    private String read(final long m) throws IOException {
+        final Segment[] list = segments;
+        int i = list.length - 1;
+
+        while (list[i].first > m)
+            i--;
+
+        return list[i].read((int) (m - list[i].first));
+    }
+
+    // Seal the current segment and start a new one
+    private Segment roll(final Segment current) throws IOException {
+        final Segment[] list = Arrays.copyOf(segments, segments.length + 1);
+        final Segment next = new Segment(segmentFile(base, list.length - 1),
+                current.first + current.count);
+
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+
+        current.seal();
+
+        list[list.length - 1] = next;
+        segments = list;
+
+        SystemIO.log("Started message segment " + next.file.getPath());
+
+        return next;
+    }
+
+    private static File segmentFile(final File base, final int i) {
+        return i == 0 ? base : new File(base.getPath() + "." + i);
+    }
+
+    /**
+     * A segment file, and the index of the messages within it.
+     */
+    private static final class Segment {
+
+        final File file;
+        final long first; // Number of the first message in the segment
+
+        // Written under the store lock. Readers read count before offsets.
+        private volatile int[] offsets = new int[64];
+        private volatile int count;
+        int size; // Bytes written
+
+        // Read-only mapping, of the whole segment once it is sealed
+        private volatile MappedByteBuffer map;
+
+        // Reads past the mapping, under the segment lock until sealed
+        private RandomAccessFile tail;
+
+        Segment(final File file, final long first) {
+            this.file = file;
+            this.first = first;
+        }
+
+        // Index an existing segment file
+        static Segment open(final File file, final long first)
+                throws IOException {
+            final Segment s = new Segment(file, first);
+            final MappedByteBuffer map = map(file, file.length());
+            int start = 0;
+
+            for (int i = 0; i < map.limit(); i++) {
+                if (map.get(i) == '\n') {
+                    s.add(start, i + 1 - start);
+                    start = i + 1;
+                }
+            }
+
+            s.size = start; // Ignore any partial line
+            s.map = map;
+
+            return s;
+        }
+
+        // Map the whole segment once no more messages will be added to it,
+        // under the store lock
+        synchronized void seal() throws IOException {
+            map = map(file, size);
+
+            if (tail != null) {
+                tail.close();
+                tail = null;
+            }
+        }
+
+        // Index a message, under the store lock
+        void add(final int offset, final int length) {
+            int[] o = offsets;
+
+            if (count + 1 >= o.length)
+                o = offsets = Arrays.copyOf(o, o.length * 2);
+
+            o[count + 1] = offset + length; // End of the message
+            o[count] = offset;
+            size = offset + length;
+            count++; // Publish
+        }
+
+        // Read the i-th message of the segment
+        String read(final int i) throws IOException {
+            final int n = count;
+
+            if (i >= n)
+                throw new IOException("No message " + i + " in "
+                        + file.getPath());
+
+            final int[] o = offsets;
+            final int start = o[i], end = o[i + 1] - 1; // Strip newline
+            final MappedByteBuffer m = map;
+
+            if (m != null && m.limit() >= end)
+                return decode(m, start, end);
+            else
+                return readTail(start, end);
+        }
+
+        // Read a message which is past the mapping of the current segment
+        private synchronized String readTail(final int start, final int end)
+                throws IOException {
+            final MappedByteBuffer m = map; // May have been sealed meanwhile
+
+            if (m != null && m.limit() >= end)
+                return decode(m, start, end);
+
+            if (tail == null)
+                tail = new RandomAccessFile(file, "r");
+
+            final byte[] bytes = new byte[end - start];
+
+            tail.seek(start);
+            tail.readFully(bytes);
+
+            return new String(bytes, UTF8);
+        }
+
+        private static String decode(final MappedByteBuffer map,
+                final int start, final int end) {
+            final ByteBuffer b = map.duplicate();
+
+            b.limit(end).position(start);
+
+            return UTF8.decode(b).toString();
+        }
+
+        // Map the first length bytes of a file
+        private static MappedByteBuffer map(final File file, final long length)
+                throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+            try {
+                return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        length);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package adventure;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Runtime counters and latency histograms, recorded by the room server as it
+ * runs and read through the process's MetricsMXBean. Recording is cheap enough to
+ * leave on at all times: counters are LongAdders, which do not contend
+ * between threads, and histograms take no locks.
+ *
+ * @author Chris Cummins
+ */
+public final class Metrics {
+
+    /**
+     * Remote calls made to the game server.
+     */
+    public enum Call {
+        SEND_MESSAGE, BROADCAST_MESSAGE, MOVE_PLAYER, MOVE_ITEM
+    }
+
+    private static final Histogram[] latency = new Histogram[Call.values().length];
+
+    static {
+        for (int i = 0; i < latency.length; i++)
+            latency[i] = new Histogram();
+    }
+
+    private static final LongAdder roomNotFound = new LongAdder();
+    private static final LongAdder playerNotInRoom = new LongAdder();
+
+    // Commands handled, keyed by action class or built in command name
+    private static final ConcurrentHashMap<String, LongAdder> commands = new ConcurrentHashMap<String, LongAdder>();
+
+    // Name under which the process metrics are registered
+    private static final String MBEAN_NAME = "adventure:type=Metrics";
+
+    private Metrics() {
+    }
+
+    /**
+     * Register the process metrics with the platform MBean server. Does
+     * nothing if they are already registered.
+     */
+    public static void register() {
+        try {
+            final ObjectName name = new ObjectName(MBEAN_NAME);
+
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new Monitor(), name);
+        } catch (JMException e) {
+            SystemIO.warning("Failed to register metrics MBean: " + e);
+        }
+    }
+
+    /**
+     * Stop publishing the process metrics.
+     */
+    public static void unregister() {
+        try {
+            final ObjectName name = new ObjectName(MBEAN_NAME);
+
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                        name);
+        } catch (JMException e) {
+            SystemIO.warning("Failed to unregister metrics MBean: " + e);
+        }
+    }
+
+    /**
+     * Record the latency of a remote call.
+     *
+     * @param call
+     *            The call.
+     * @param start
+     *            The value of System.nanoTime() when the call was made.
+     */
+    public static void call(final Call call, final long start) {
+        latency[call.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Count a room_not_found failure.
+     */
+    public static void roomNotFound() {
+        roomNotFound.increment();
+    }
+
+    /**
+     * Count a player_not_in_room failure.
+     */
+    public static void playerNotInRoom() {
+        playerNotInRoom.increment();
+    }
+
+    /**
+     * Return the counter of commands handled by a given action or built in
+     * command. Callers should look the counter up once, and keep it.
+     *
+     * @param name
+     *            The action class or command name.
+     * @return The command counter.
+     */
+    public static LongAdder commands(final String name) {
+        final LongAdder counter = commands.get(name);
+
+        if (counter != null)
+            return counter;
+
+        final LongAdder created = new LongAdder();
+        final LongAdder previous = commands.putIfAbsent(name, created);
+
+        return previous != null ? previous : created;
+    }
+
+    /**
+     * Return the number of commands handled, by action or built in command.
+     *
+     * @return Command counts, sorted by name.
+     */
+    public static Map<String, Long> commandCounts() {
+        final TreeMap<String, Long> counts = new TreeMap<String, Long>();
+
+        for (final Map.Entry<String, LongAdder> e : commands.entrySet())
+            counts.put(e.getKey(), e.getValue().sum());
+
+        return counts;
+    }
+
+    /**
+     * Return a summary of the latency of a remote call.
+     *
+     * @param call
+     *            The call.
+     * @return The call count, and the p50, p99, p999 and maximum latencies in
+     *         microseconds.
+     */
+    public static Map<String, Long> latency(final Call call) {
+        final Histogram h = latency[call.ordinal()];
+        final TreeMap<String, Long> summary = new TreeMap<String, Long>();
+
+        summary.put("count", h.count());
+        summary.put("p50", h.percentile(50) / 1000);
+        summary.put("p99", h.percentile(99) / 1000);
+        summary.put("p999", h.percentile(99.9) / 1000);
+        summary.put("max", h.max() / 1000);
+
+        return summary;
+    }
+
+    /**
+     * Return the number of room_not_found failures.
+     *
+     * @return Failure count.
+     */
+    public static long roomNotFoundCount() {
+        return roomNotFound.sum();
+    }
+
+    /**
+     * Return the number of player_not_in_room failures.
+     *
+     * @return Failure count.
+     */
+    public static long playerNotInRoomCount() {
+        return playerNotInRoom.sum();
+    }
+
+    /**
+     * The process metrics, as seen by JMX clients.
+     */
+    private static final class Monitor implements MetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCommandCounts() {
+            return commandCounts();
+        }
+
+        @Override
+        public Map<String, Long> getSendMessageLatency() {
+            return latency(Call.SEND_MESSAGE);
+        }
+
+        @Override
+        public Map<String, Long> getBroadcastMessageLatency() {
+            return latency(Call.BROADCAST_MESSAGE);
+        }
+
+        @Override
+        public Map<String, Long> getMovePlayerLatency() {
+            return latency(Call.MOVE_PLAYER);
+        }
+
+        @Override
+        public Map<String, Long> getMoveItemLatency() {
+            return latency(Call.MOVE_ITEM);
+        }
+
+        @Override
+        public long getRoomNotFound() {
+            return roomNotFoundCount();
+        }
+
+        @Override
+        public long getPlayerNotInRoom() {
+            return playerNotInRoomCount();
+        }
+
+        @Override
+        public long getLogDepth() {
+            return SystemIO.pending();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package adventure;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal HTTP endpoint which serves the room server metrics as plain text,
+ * one "name value" line per metric, at /metrics. It listens on the loopback
+ * interface only, for use by local monitoring tools which do not speak JMX.
+ * One endpoint serves the whole process: the metrics counted for the whole
+ * process are written once, and the metrics of each maze are read from its
+ * MXBean and labelled with the maze's name.
+ *
+ * @author Chris Cummins
+ */
+public final class MetricsEndpoint {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Pattern matching the MXBean of every maze
+    private static final ObjectName MAZES = mazes();
+
+    private final HttpServer server;
+
+    /**
+     * Start serving metrics.
+     *
+     * @param port
+     *            The local port to listen on.
+     * @throws IOException
+     *             In case the port cannot be bound.
+     */
+    public MetricsEndpoint(final int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final byte[] body = render().getBytes(UTF8);
+
+                exchange.getResponseHeaders().set("Content-Type",
+                        "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+
+                final OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+
+        SystemIO.log("Serving metrics at http://localhost:" + port
+                + "/metrics");
+    }
+
+    /**
+     * Stop serving metrics.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    // Render every metric as text
+    private static String render() {
+        final StringBuilder s = new StringBuilder(1024);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        // Metrics of the whole process
+        line(s, "room_not_found", Metrics.roomNotFoundCount());
+        line(s, "player_not_in_room", Metrics.playerNotInRoomCount());
+        line(s, "log_depth", SystemIO.pending());
+
+        for (final Map.Entry<String, Long> e : Metrics.commandCounts()
+                .entrySet())
+            line(s, "commands{action=\"" + e.getKey() + "\"}", e.getValue());
+
+        latency(s, "send_message", Metrics.latency(Metrics.Call.SEND_MESSAGE));
+        latency(s, "broadcast_message",
+                Metrics.latency(Metrics.Call.BROADCAST_MESSAGE));
+        latency(s, "move_player", Metrics.latency(Metrics.Call.MOVE_PLAYER));
+        latency(s, "move_item", Metrics.latency(Metrics.Call.MOVE_ITEM));
+
+        // Metrics of each maze, in order of name
+        for (final ObjectName name : new TreeSet<ObjectName>(
+                server.queryNames(MAZES, null))) {
+            final RoomServerMXBean m = JMX.newMXBeanProxy(server, name,
+                    RoomServerMXBean.class);
+            final String maze = "maze=\"" + ObjectName.unquote(name
+                    .getKeyProperty("name")) + "\"";
+
+            line(s, "live_servants{" + maze + "}", m.getLiveServants());
+            line(s, "active_rooms{" + maze + "}", m.getActiveRooms());
+            line(s, "players{" + maze + "}", m.getPlayers());
+            line(s, "outbox_depth{" + maze + "}", m.getOutboxDepth());
+            line(s, "dispatcher_depth{" + maze + "}", m.getDispatcherDepth());
+            line(s, "journal_depth{" + maze + "}", m.getJournalDepth());
+
+            for (final Map.Entry<Integer, Integer> e : m.getPlayersPerRoom()
+                    .entrySet())
+                line(s, "room_players{" + maze + ",room=\"" + e.getKey()
+                        + "\"}", e.getValue());
+        }
+
+        return s.toString();
+    }
+
+    private static ObjectName mazes() {
+        try {
+            return new ObjectName("adventure:type=RoomServer,*");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void latency(final StringBuilder s, final String call,
+            final Map<String, Long> summary) {
+        for (final Map.Entry<String, Long> e : summary.entrySet())
+            line(s, "latency_us{call=\"" + call + "\",stat=\"" + e.getKey()
+                    + "\"}", e.getValue());
+    }
+
+    private static void line(final StringBuilder s, final String name,
+            final long value) {
+        s.append(name).append(' ').append(value).append('\n');
+    }
+}
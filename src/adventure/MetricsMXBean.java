@@ -0,0 +1,56 @@
+package adventure;
+
+import java.util.Map;
+
+/**
+ * The management interface of the room server process, registered with the
+ * platform MBean server as "adventure:type=Metrics". Commands, failures and
+ * latencies are counted for the whole process, whichever maze they belong to.
+ * Counts are totals since startup, so rates are found by sampling them.
+ * Latencies are in microseconds.
+ *
+ * @author Chris Cummins
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return The number of commands handled, by action class or built in
+     *         command.
+     */
+    public Map<String, Long> getCommandCounts();
+
+    /**
+     * @return The latency of send_message() calls.
+     */
+    public Map<String, Long> getSendMessageLatency();
+
+    /**
+     * @return The latency of broadcast_message() calls.
+     */
+    public Map<String, Long> getBroadcastMessageLatency();
+
+    /**
+     * @return The latency of move_player() calls.
+     */
+    public Map<String, Long> getMovePlayerLatency();
+
+    /**
+     * @return The latency of move_item() calls.
+     */
+    public Map<String, Long> getMoveItemLatency();
+
+    /**
+     * @return The number of room_not_found failures.
+     */
+    public long getRoomNotFound();
+
+    /**
+     * @return The number of player_not_in_room failures.
+     */
+    public long getPlayerNotInRoom();
+
+    /**
+     * @return The number of log messages waiting to be written.
+     */
+    public long getLogDepth();
+}
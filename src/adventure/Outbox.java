@@ -0,0 +1,667 @@
+package adventure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An asynchronous outbound message pipeline. Rooms queue their messages here
+ * rather than calling the game server directly, so that the thread serving a
+ * request is never blocked by a remote call. Messages are delivered by a pool
+ * of sender threads.<br/>
+ * <br/>
+ *
+ * Each sender thread owns a bounded queue, and every message for a given
+ * player is routed to the same queue, so messages are always delivered to a
+ * player in the order in which they were sent. When a queue is full, the
+ * calling thread blocks until space is available, providing backpressure. Sender
+ * threads never block on a full queue: messages which they send are dropped
+ * instead.<br/>
+ * <br/>
+ *
+ * Messages are write-combined, so that all of the lines bound for the same
+ * player are sent in a single call. Between calls to begin() and end(), the
+ * messages sent by a thread are held back and merged when the outermost end()
+ * is reached, which allows a room to group the responses to a single command.
+ * Sender threads also merge the messages waiting in their queue, optionally
+ * pausing for a short window to allow bursts to accumulate.<br/>
+ * <br/>
+ *
+ * Multi-line messages may also be scrolled to a player, one line at a time.
+ * Scrolling is driven by a shared scheduler thread, so no request thread ever
+ * sleeps while a message scrolls.
+ *
+ * @author Chris Cummins
+ */
+public final class Outbox {
+
+    // Maximum number of messages merged by a sender at once
+    private static final int MAX_BATCH = 256;
+
+    // Minimum time before retrying a scrolled line which found its queue full
+    private static final long RETRY_DELAY = 10;
+
+    private final Sender[] senders;
+    private final int capacity;
+    private volatile long window;
+    private volatile long scrollDelay;
+    private final ScheduledExecutorService scheduler;
+
+    // Messages held back by the current thread
+    private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>() {
+        @Override
+        protected Batch initialValue() {
+            return new Batch();
+        }
+    };
+
+    // Statistics
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong highWater = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Create and start a new outbox.
+     *
+     * @param threads
+     *            The number of sender threads.
+     * @param capacity
+     *            The maximum number of queued messages, divided evenly between
+     *            the sender threads.
+     * @param window
+     *            The time that a sender waits for further messages to merge,
+     *            in milliseconds. If zero, senders only merge the messages
+     *            which are already queued.
+     * @param scrollDelay
+     *            The delay between scrolled lines, in milliseconds.
+     */
+    public Outbox(final int threads, final int capacity, final long window,
+            final long scrollDelay) {
+        this.senders = new Sender[threads];
+        this.capacity = Math.max(capacity, threads);
+        this.window = window;
+        this.scrollDelay = scrollDelay;
+        this.scheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "outbox-scroll");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        for (int i = 0; i < threads; i++) {
+            senders[i] = new Sender(i, this.capacity / threads);
+            senders[i].start();
+        }
+    }
+
+    /**
+     * Queue a message for a player.
+     *
+     * @param room
+     *            The sending room.
+     * @param p
+     *            Message recipient.
+     * @param msg
+     *            Message contents.
+     */
+    public void send(final RoomImpl room, final Player p, final String[] msg) {
+        submit(new Envelope(room, p, msg));
+    }
+
+    /**
+     * Queue a message for every player on the server.
+     *
+     * @param room
+     *            The sending room.
+     * @param msg
+     *            Message contents.
+     */
+    public void broadcast(final RoomImpl room, final String[] msg) {
+        submit(new Envelope(room, null, msg));
+    }
+
+    /**
+     * Scroll a multi-line message to a player, sending one line at a time.
+     * This method returns immediately, and the remaining lines are sent by the
+     * scheduler thread.
+     *
+     * @param room
+     *            The sending room.
+     * @param p
+     *            Message recipient.
+     * @param msg
+     *            Message contents, one line per element.
+     * @return A handle which may be used to cancel the scroll.
+     */
+    public Scroll scroll(final RoomImpl room, final Player p, final String[] msg) {
+        final Scroll s = new Scroll(room, p, msg);
+
+        if (msg.length > 0)
+            s.schedule(0);
+
+        return s;
+    }
+
+    /**
+     * Begin holding back the messages sent by the current thread. Calls may be
+     * nested, and must each be matched by a call to end().
+     */
+    public void begin() {
+        batches.get().depth++;
+    }
+
+    /**
+     * Stop holding back messages. When the outermost call is reached, the held
+     * messages are merged and queued for delivery.
+     */
+    public void end() {
+        final Batch b = batches.get();
+
+        if (--b.depth == 0)
+            flush(b);
+    }
+
+    /**
+     * Queue any messages held back by the current thread without waiting for
+     * end().
+     */
+    public void flush() {
+        flush(batches.get());
+    }
+
+    /**
+     * Change the time that senders wait for further messages to merge.
+     *
+     * @param window
+     *            The coalescing window, in milliseconds.
+     */
+    public void setWindow(final long window) {
+        this.window = window;
+    }
+
+    /**
+     * Change the delay between scrolled lines. Scrolls in progress use the new
+     * delay from their next line.
+     *
+     * @param scrollDelay
+     *            The scroll delay, in milliseconds.
+     */
+    public void setScrollDelay(final long scrollDelay) {
+        this.scrollDelay = scrollDelay;
+    }
+
+    /**
+     * Stop accepting messages, and wait for the queued messages to be
+     * delivered.
+     *
+     * @param timeout
+     *            The maximum time to wait, in milliseconds.
+     */
+    public void shutdown(final long timeout) {
+        final long deadline = System.currentTimeMillis() + timeout;
+
+        shutdown = true;
+        scheduler.shutdownNow(); // Abandon any scrolling messages
+
+        for (final Sender s : senders)
+            s.interrupt();
+
+        try {
+            for (final Sender s : senders)
+                s.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            SystemIO.error("Outbox shutdown interrupted!", e);
+        }
+    }
+
+    /**
+     * Return the number of messages currently queued.
+     *
+     * @return Queue depth.
+     */
+    public int depth() {
+        int depth = 0;
+
+        for (final Sender s : senders)
+            depth += s.queue.size();
+
+        return depth;
+    }
+
+    /**
+     * Return the maximum number of messages that may be queued.
+     *
+     * @return Queue capacity.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Return the largest number of messages that have been queued on a single
+     * sender thread.
+     *
+     * @return Queue high water mark.
+     */
+    public long highWater() {
+        return highWater.get();
+    }
+
+    /**
+     * Return the number of messages successfully delivered.
+     *
+     * @return Delivered message count.
+     */
+    public long delivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Return the number of messages which the game server rejected.
+     *
+     * @return Failed message count.
+     */
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * Return the number of messages dropped because a queue was full or the
+     * outbox had shut down.
+     *
+     * @return Dropped message count.
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Return the number of remote calls saved by merging messages.
+     *
+     * @return Saved call count.
+     */
+    public long saved() {
+        return saved.get();
+    }
+
+    /**
+     * Return the number of times that a caller was blocked by a full queue.
+     *
+     * @return Backpressure stall count.
+     */
+    public long stalls() {
+        return stalls.get();
+    }
+
+    @Override
+    public String toString() {
+        return "outbox: depth " + depth() + "/" + capacity + ", high water "
+                + highWater() + ", delivered " + delivered() + ", failed "
+                + failed() + ", dropped " + dropped() + ", stalls " + stalls()
+                + ", saved " + saved();
+    }
+
+    // Hold a message back if the current thread has begun a batch
+    private void submit(final Envelope e) {
+        final Batch b = batches.get();
+
+        if (b.depth > 0)
+            b.envelopes.add(e);
+        else
+            enqueue(e);
+    }
+
+    // Merge and queue the held messages
+    private void flush(final Batch b) {
+        if (b.envelopes.isEmpty())
+            return;
+
+        coalesce(b.envelopes);
+
+        for (final Envelope e : b.envelopes) {
+            if (e != null)
+                enqueue(e);
+        }
+
+        b.envelopes.clear();
+    }
+
+    /*
+     * Merge each run of messages in a list which share a recipient into the
+     * first message of the run. A run ends at the first message which could
+     * reach the same player, so no player sees messages out of order. Merged
+     * messages are replaced with null.
+     */
+    private void coalesce(final List<Envelope> envelopes) {
+        final int n = envelopes.size();
+
+        for (int i = 0; i < n; i++) {
+            final Envelope e = envelopes.get(i);
+            ArrayList<String> lines = null;
+
+            if (e == null)
+                continue;
+
+            for (int j = i + 1; j < n; j++) {
+                final Envelope other = envelopes.get(j);
+
+                if (other == null)
+                    continue;
+                else if (!e.sameRecipient(other)) {
+                    if (e.overlaps(other))
+                        break;
+                    continue;
+                }
+
+                if (lines == null) {
+                    lines = new ArrayList<String>();
+                    add(lines, e.message);
+                }
+
+                add(lines, other.message);
+                envelopes.set(j, null);
+                saved.incrementAndGet();
+            }
+
+            if (lines != null)
+                envelopes.set(i, new Envelope(e.room, e.player,
+                        lines.toArray(new String[lines.size()])));
+        }
+    }
+
+    // Append the lines of a message to a list
+    private static void add(final ArrayList<String> lines, final String[] msg) {
+        for (final String line : msg)
+            lines.add(line);
+    }
+
+    // Add a message to a sender queue if there is room, without waiting
+    private boolean offer(final Envelope e) {
+        final Sender s = sender(e);
+
+        if (shutdown || !s.queue.offer(e))
+            return false;
+
+        queued(s);
+        return true;
+    }
+
+    // Add a message to a sender queue, applying backpressure if full
+    private void enqueue(final Envelope e) {
+        final Sender s = sender(e);
+
+        if (shutdown || Thread.currentThread() instanceof Sender) {
+            if (shutdown || !s.queue.offer(e)) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } else if (!s.queue.offer(e)) {
+            stalls.incrementAndGet();
+
+            try {
+                s.queue.put(e);
+            } catch (InterruptedException x) {
+                dropped.incrementAndGet();
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        queued(s);
+    }
+
+    // The sender thread which delivers a message
+    private Sender sender(final Envelope e) {
+        return senders[stripe(e.player == null ? e.room.no : e.player
+                .hashCode())];
+    }
+
+    // Update the high water mark after queueing a message
+    private void queued(final Sender s) {
+        final int depth = s.queue.size();
+        long max = highWater.get();
+        while (depth > max && !highWater.compareAndSet(max, depth))
+            max = highWater.get();
+    }
+
+    // Merge and deliver a batch of messages
+    private void deliver(final List<Envelope> envelopes) {
+        try {
+            coalesce(envelopes);
+
+            for (final Envelope e : envelopes) {
+                if (e != null)
+                    deliver(e);
+            }
+        } finally {
+            envelopes.clear();
+        }
+    }
+
+    // Deliver a single message to the game server
+    private void deliver(final Envelope e) {
+        final RoomImpl room = e.room;
+        final long start = System.nanoTime();
+
+        try {
+            if (e.player == null) {
+                room.rs.broadcast_message(room.no, e.message);
+                Metrics.call(Metrics.Call.BROADCAST_MESSAGE, start);
+            } else {
+                room.rs.send_message(room.no, e.player, e.message);
+                Metrics.call(Metrics.Call.SEND_MESSAGE, start);
+            }
+
+            delivered.incrementAndGet();
+        } catch (room_not_found x) {
+            failed.incrementAndGet();
+            Metrics.roomNotFound();
+            SystemIO.error("Room not found!", x);
+        } catch (player_not_in_room x) {
+            failed.incrementAndGet();
+            Metrics.playerNotInRoom();
+            SystemIO.error("Player not in room!", x);
+            if (e.player != null)
+                room.playerGone(e.player); // Remove from the room's list
+        } catch (RuntimeException x) { // Including CORBA system exceptions
+            failed.incrementAndGet();
+            SystemIO.error("Failed to send message!", x);
+        }
+    }
+
+    // Map a hash code onto a sender thread index
+    private int stripe(final int h) {
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % senders.length;
+    }
+
+    /**
+     * A queued message.
+     */
+    private static final class Envelope {
+        final RoomImpl room;
+        final Player player; // Null for broadcasts
+        final String[] message;
+
+        Envelope(final RoomImpl room, final Player player, final String[] message) {
+            this.room = room;
+            this.player = player;
+            this.message = message;
+        }
+
+        // Whether two messages may be merged into a single call
+        boolean sameRecipient(final Envelope other) {
+            if (room != other.room)
+                return false;
+            else if (player == null)
+                return other.player == null;
+            else
+                return other.player != null && player.equals(other.player);
+        }
+
+        // Whether two messages could reach the same player: a broadcast
+        // reaches every player in its room
+        boolean overlaps(final Envelope other) {
+            if (player == null || other.player == null)
+                return room == other.room;
+            else
+                return player.equals(other.player);
+        }
+    }
+
+    /**
+     * A message which is being scrolled to a player. Lines are sent by the
+     * scheduler thread, which reschedules the scroll after each line until it
+     * is complete or cancelled. A line which finds its sender queue full is
+     * retried later rather than blocking the scheduler.
+     */
+    public final class Scroll implements Runnable {
+
+        private final RoomImpl room;
+        private final Player player;
+        private final String[] lines;
+
+        private int next = 0; // Only accessed by the scheduler thread
+        private volatile boolean done = false;
+        private volatile ScheduledFuture<?> future;
+
+        private Scroll(final RoomImpl room, final Player player,
+                final String[] lines) {
+            this.room = room;
+            this.player = player;
+            this.lines = lines;
+        }
+
+        /**
+         * Stop scrolling. Lines which have already been sent are not
+         * affected.
+         */
+        public void cancel() {
+            done = true;
+
+            final ScheduledFuture<?> f = future;
+            if (f != null)
+                f.cancel(false);
+        }
+
+        /**
+         * Return whether the scroll has completed or been cancelled.
+         *
+         * @return True if no more lines will be sent.
+         */
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public void run() {
+            if (done)
+                return;
+
+            if (!room.hasPlayer(player)) { // Player has left the room
+                done = true;
+                return;
+            }
+
+            // Never block the scheduler on a full queue: try the line again
+            // later instead
+            final String[] line = { lines[next] };
+            if (!offer(new Envelope(room, player, line))) {
+                if (shutdown)
+                    done = true;
+                else
+                    schedule(Math.max(scrollDelay, RETRY_DELAY));
+                return;
+            }
+
+            if (++next < lines.length)
+                schedule(scrollDelay);
+            else
+                done = true;
+        }
+
+        // Send the next line after a delay
+        private void schedule(final long delay) {
+            try {
+                future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+
+                if (done) // Cancelled while being scheduled
+                    future.cancel(false);
+            } catch (RejectedExecutionException e) {
+                done = true; // Outbox has shut down
+            }
+        }
+    }
+
+    /**
+     * The messages held back by a thread.
+     */
+    private static final class Batch {
+        final ArrayList<Envelope> envelopes = new ArrayList<Envelope>();
+        int depth = 0;
+    }
+
+    /**
+     * A sender thread, which delivers the messages in its queue in order.
+     */
+    private final class Sender extends Thread {
+
+        final BlockingQueue<Envelope> queue;
+
+        Sender(final int n, final int capacity) {
+            super("outbox-" + n);
+            this.queue = new ArrayBlockingQueue<Envelope>(Math.max(1, capacity));
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final ArrayList<Envelope> batch = new ArrayList<Envelope>();
+
+            while (!shutdown) {
+                try {
+                    batch.add(queue.take());
+
+                    if (window > 0) // Wait for a burst to accumulate
+                        Thread.sleep(window);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+
+                queue.drainTo(batch, MAX_BATCH - batch.size());
+                send(batch);
+            }
+
+            // Flush any remaining messages
+            while (queue.drainTo(batch, MAX_BATCH) > 0 || !batch.isEmpty())
+                send(batch);
+        }
+
+        // Deliver a batch, never letting a failure stop the sender
+        private void send(final List<Envelope> batch) {
+            final int size = batch.size();
+
+            try {
+                deliver(batch);
+            } catch (RuntimeException x) {
+                failed.addAndGet(size);
+                SystemIO.error("Failed to deliver messages!", x);
+            }
+        }
+    }
+}
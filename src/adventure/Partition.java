@@ -0,0 +1,105 @@
+package adventure;
+
+import java.util.Arrays;
+
+/**
+ * The division of a maze into rectangular regions, each served by a different
+ * room server. The regions form a grid of columns and rows, numbered row by
+ * row from the south west, in the same way as rooms. A player who walks off
+ * the edge of one region is moved by the game server into the adjacent region,
+ * which is registered under another user.
+ *
+ * @author Chris Cummins
+ */
+public final class Partition {
+
+    public final int columns;
+    public final int rows;
+
+    // The region served here
+    public final int column;
+    public final int row;
+
+    // The user serving each region, row by row
+    private final String[] users;
+
+    /**
+     * Create a partition.
+     *
+     * @param columns
+     *            The number of regions across the maze.
+     * @param rows
+     *            The number of regions up the maze.
+     * @param users
+     *            The user serving each region, row by row from the south
+     *            west.
+     * @param user
+     *            The user serving the region served here, which must be one
+     *            of the users.
+     */
+    public Partition(final int columns, final int rows, final String[] users,
+            final String user) {
+        final int region = Arrays.asList(users).indexOf(user);
+
+        if (columns < 1 || rows < 1 || users.length != columns * rows
+                || region < 0)
+            throw new IllegalArgumentException("Invalid partition");
+
+        this.columns = columns;
+        this.rows = rows;
+        this.column = region % columns;
+        this.row = region / columns;
+        this.users = users.clone();
+    }
+
+    /**
+     * Return the user serving the region adjacent to this one.
+     *
+     * @param direction
+     *            One of MazeGeometry's NORTH, EAST, SOUTH or WEST.
+     * @return The user, or null if this region is at that edge of the maze.
+     */
+    public String neighbour(final int direction) {
+        switch (direction) {
+        case MazeGeometry.NORTH:
+            return row + 1 < rows ? user(column, row + 1) : null;
+        case MazeGeometry.EAST:
+            return column + 1 < columns ? user(column + 1, row) : null;
+        case MazeGeometry.SOUTH:
+            return row > 0 ? user(column, row - 1) : null;
+        case MazeGeometry.WEST:
+            return column > 0 ? user(column - 1, row) : null;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Return the user serving a given region.
+     *
+     * @param column
+     *            The region column, from the west.
+     * @param row
+     *            The region row, from the south.
+     * @return The user.
+     */
+    public String user(final int column, final int row) {
+        return users[row * columns + column];
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof Partition))
+            return false;
+
+        final Partition p = (Partition) o;
+
+        return p.columns == columns && p.column == column && p.row == row
+                && Arrays.equals(p.users, users);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(users) * 31 + row * columns + column;
+    }
+}
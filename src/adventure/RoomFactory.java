@@ -1,74 +1,224 @@
 package adventure;
 
-import java.util.Random;
-
-import org.omg.PortableServer.POA;
-import org.omg.PortableServer.POAPackage.ServantNotActive;
-import org.omg.PortableServer.POAPackage.WrongPolicy;
+import java.util.Arrays;
 
 import adventure.rooms.DungeonRoom;
 import adventure.rooms.MainRoom;
 
 /**
- * A utility class used to procedurally generate random dungeon rooms.
+ * A utility class used to procedurally generate random dungeon rooms. The
+ * content of each room is a pure function of the maze seed and the room
+ * number, so any room can be regenerated on demand with identical content, and
+ * no state needs to be kept for rooms which have been generated. The seed and
+ * descriptions may be replaced while rooms are live, e.g. when the
+ * configuration is reloaded.
  * 
  * @author Chris Cummins
  */
 public class RoomFactory {
 
-    private final POA poa;
+    // The SplitMix64 increment, used to spread room numbers apart
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final Outbox outbox;
+    private final Dispatcher dispatcher;
 
     // Cached configuration options
-    private final String[] roomDescriptions;
     private final String user;
-    private final int mazeWidth;
-    private final int mazeHeight;
+    private final String prefix; // Of the files written by rooms
+    private final MazeGeometry geometry;
+
+    // Room content, replaced as a whole
+    private volatile Content content;
+
+    /**
+     * Instantiate a new dungeon room factory using the given configuration.
+     * 
+     * @param cfg
+     *            The configuration to use.
+     * @param outbox
+     *            The outbound message queue shared by all rooms.
+     * @param dispatcher
+     *            The dispatcher which runs room callbacks.
+     * @param geometry
+     *            The maze geometry shared by all rooms.
+     * @throws ConfigParseException
+     *             In case of error while parsing the configuration.
+     */
+    public RoomFactory(final Config cfg, final Outbox outbox,
+            final Dispatcher dispatcher, final MazeGeometry geometry)
+            throws ConfigParseException {
+        this(cfg, outbox, dispatcher, geometry, cfg.getMazeSeed(), cfg
+                .getDescriptions());
+    }
 
     /**
-     * Instantiate a new dungeon room factory using the given configuration and
-     * POA.
+     * Instantiate a new dungeon room factory with a given seed and room
+     * descriptions, e.g. those of a restored snapshot.
      * 
      * @param cfg
      *            The configuration to use.
-     * @param poa
-     *            A portable object adapter.
+     * @param outbox
+     *            The outbound message queue shared by all rooms.
+     * @param dispatcher
+     *            The dispatcher which runs room callbacks.
+     * @param geometry
+     *            The maze geometry shared by all rooms.
+     * @param seed
+     *            The maze seed.
+     * @param descriptions
+     *            The room descriptions.
      * @throws ConfigParseException
      *             In case of error while parsing the configuration.
      */
-    public RoomFactory(final Config cfg, final POA poa)
+    public RoomFactory(final Config cfg, final Outbox outbox,
+            final Dispatcher dispatcher, final MazeGeometry geometry,
+            final long seed, final String[] descriptions)
             throws ConfigParseException {
-        this.poa = poa;
-        this.roomDescriptions = cfg.getDescriptions();
+        this.outbox = outbox;
+        this.dispatcher = dispatcher;
         this.user = cfg.getUser();
-        this.mazeWidth = cfg.getMazeWidth();
-        this.mazeHeight = cfg.getMazeHeight();
+        this.prefix = cfg.getFilePrefix();
+        this.geometry = geometry;
+
+        setContent(seed, descriptions);
+    }
+
+    /**
+     * Replace the maze seed and room descriptions. Rooms built afterwards are
+     * generated from the new content, and live rooms may be brought up to
+     * date with refresh().
+     * 
+     * @param seed
+     *            The maze seed.
+     * @param descriptions
+     *            The room descriptions.
+     * @return True if the content changed.
+     * @throws ConfigParseException
+     *             If there are no descriptions.
+     */
+    public boolean setContent(final long seed, final String[] descriptions)
+            throws ConfigParseException {
+        final Content c = content;
+
+        if (descriptions.length == 0)
+            throw new ConfigParseException("No room descriptions!");
+
+        if (c != null && c.seed == seed
+                && Arrays.equals(c.descriptions, descriptions))
+            return false;
+
+        content = new Content(seed, descriptions.clone());
+
+        // Drop the payloads of the old descriptions
+        if (c != null)
+            RoomImpl.clearDescriptions();
+
+        return true;
+    }
+
+    /**
+     * Bring a live room up to date with the current content.
+     * 
+     * @param room
+     *            A room built by this factory.
+     * @return True if the room changed.
+     */
+    public boolean refresh(final RoomImpl room) {
+        if (!(room instanceof DungeonRoom))
+            return false;
+
+        final DungeonRoom dungeon = (DungeonRoom) room;
+        final String description = description(room.no);
+
+        if (description.equals(dungeon.getDescription()))
+            return false;
+
+        dungeon.setDescription(description);
+        return true;
+    }
+
+    /**
+     * Return the maze seed.
+     * 
+     * @return The seed rooms are generated from.
+     */
+    public long seed() {
+        return content.seed;
+    }
+
+    /**
+     * Return the room descriptions.
+     * 
+     * @return The descriptions rooms are generated from.
+     */
+    public String[] descriptions() {
+        return content.descriptions.clone();
     }
 
     /**
-     * Create a new room with a given room number and callback room server.
+     * Create a new room servant with a given room number and callback room
+     * server. A room is always generated with the same content for a given
+     * maze seed.
      * 
      * @param rs
      *            The callback room server.
      * @param n
      *            The room number.
      * @return A randomly generated maze room.
-     * @throws ServantNotActive
-     *             In case the POA servant is not active.
-     * @throws WrongPolicy
-     *             In case the wrong policy is used with the POA.
      */
-    public Room next(final CBRoomServer rs, final int n)
-            throws ServantNotActive, WrongPolicy {
-        SystemIO.log("Generating room " + n);
-
-        final int index = new Random().nextInt(roomDescriptions.length);
-        final String description = roomDescriptions[index];
-        final RoomImpl room = (n == 0) ? new MainRoom(n, user, rs,
-                mazeWidth, mazeHeight) : new DungeonRoom(n, user, description,
-                rs, mazeWidth, mazeHeight);
-        final org.omg.CORBA.Object o = poa.servant_to_reference(room);
-
-        return RoomHelper.narrow(o);
+    public RoomImpl next(final CBRoomServer rs, final int n) {
+        if (SystemIO.isLogging())
+            SystemIO.log("Generating room " + n);
+
+        return (n == 0) ? new MainRoom(n, user, rs, outbox,
+                dispatcher.serial(), geometry, prefix) : new DungeonRoom(n,
+                user, description(n), rs, outbox, dispatcher.serial(),
+                geometry);
+    }
+
+    /**
+     * Return the description of a given room.
+     * 
+     * @param n
+     *            The room number.
+     * @return The room description.
+     */
+    public String description(final int n) {
+        final Content c = content; // Seed and descriptions must match
+
+        return c.descriptions[choose(random(c.seed, n, 0),
+                c.descriptions.length)];
+    }
+
+    // Return a pseudo-random number for a room, from a given seed
+    private static long random(final long seed, final int n, final int stream) {
+        return mix(seed + GOLDEN_GAMMA * (((long) stream << 32) | (n & 0xffffffffL)));
+    }
+
+    // Map a random number onto the range [0, bound) without division
+    private static int choose(final long random, final int bound) {
+        return (int) (((random >>> 32) * bound) >>> 32);
+    }
+
+    // The SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 
+    /**
+     * A maze seed and the room descriptions generated from it.
+     */
+    private static final class Content {
+
+        final long seed;
+        final String[] descriptions;
+
+        Content(final long seed, final String[] descriptions) {
+            this.seed = seed;
+            this.descriptions = descriptions;
+        }
+    }
 }
@@ -1,7 +1,17 @@
 package adventure;
 
-import java.util.HashSet;
-import java.util.Iterator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.portable.ObjectImpl;
 
 import adventure.actions.Go;
 import adventure.actions.Release;
@@ -13,8 +23,22 @@ import adventure.actions.Take;
  * The base room class, offering the bare minimum of functionality to the
  * player, i.e. movement and inter-player communication. Classes may extend this
  * in order to offer additional behaviour. Behaviour is added to rooms by adding
- * items to the actions hash set. When a command is sent to a room, the actions
- * are iterated over until an one successfully processes the command.
+ * items to the actions list. When a command is sent to a room, it is dispatched
+ * to the action which registered the command's verb, using a table which is
+ * shared between all rooms of the same class.<br/>
+ * <br/>
+ *
+ * Room callbacks take no locks. The players in a room are held in a
+ * copy-on-write set, so that messages can be sent to a consistent snapshot of
+ * the room while players enter and leave, and items are held in a concurrent
+ * set. Each change of membership is a single atomic update, and remote calls
+ * such as fetching a player's name are never made while holding a lock.<br/>
+ * <br/>
+ *
+ * The oneway callbacks are run through the room's executor, which runs them in
+ * the order they arrived, either on the ORB thread or on a worker thread (see
+ * Dispatcher). Subclasses extend the callbacks by overriding the protected
+ * methods which implement them, e.g. playerLeft().
  *
  * @author Chris Cummins
  */
@@ -23,23 +47,76 @@ public class RoomImpl extends RoomPOA {
     private static final String[] directions = new String[] { "north", "east",
             "south", "west" };
 
+    // Help text of the commands handled by the room itself
+    private static final String[] builtInHelp = new String[] {
+            "/help                     - show this text",
+            "/description              - describe the room" };
+
+    // Built in commands handled, and commands no action handled
+    private static final LongAdder helpCount = Metrics.commands("help");
+    private static final LongAdder descriptionCount = Metrics
+            .commands("description");
+    private static final LongAdder unrecognisedCount = Metrics
+            .commands("unrecognised");
+
+    // Description payloads, shared between rooms with the same description
+    private static final ConcurrentHashMap<String, String[]> descriptions = new ConcurrentHashMap<String, String[]>();
+
+    // The end of a room description, indexed by the room's exits mask
+    private static final String[] exits = new String[1 << directions.length];
+
+    static {
+        for (int mask = 0; mask < exits.length; mask++) {
+            final StringBuilder s = new StringBuilder(
+                    ". From here, you can go ");
+            String separator = "";
+
+            for (int d = 0; d < directions.length; d++) {
+                if ((mask & (1 << d)) != 0) {
+                    s.append(separator).append(directions[d]);
+                    separator = ", ";
+                }
+            }
+
+            exits[mask] = mask == 0 ? ". There is no way out." : s.append('.')
+                    .toString();
+        }
+    }
+
     // Room properties
     public final int no;
     public final String user;
     public final RoomID id;
     public final ItemLocation location;
     public final CBRoomServer rs;
+    public final Outbox outbox;
+    public final Executor executor;
 
     // Room state
-    protected transient final HashSet<Action> actions;
-    protected transient final HashSet<Player> players;
-    protected transient final HashSet<Item> items;
+    protected transient final ArrayList<Action> actions;
+    protected transient final CopyOnWriteArraySet<Player> players;
+    protected transient final Set<Item> items;
+    protected transient final ConcurrentHashMap<Player, Outbox.Scroll> scrolls;
 
-    // Maze dimensions
-    protected final int mazeSize;
-    protected final int mazeWidth;
-    protected final int mazeHeight;
-    protected final int invalidNo;
+    // Maze dimensions, shared by all rooms
+    protected final MazeGeometry geometry;
+
+    // The journal of state changes, or null if changes are not journalled
+    private volatile Journal journal;
+
+    // Servant lifecycle: the number of requests in progress, or EVICTING while
+    // an idle room is checked for eviction, or EVICTED once it has been
+    // evicted, and the time of the last request
+    private static final int EVICTING = -2, EVICTED = -1;
+    private final AtomicInteger pins = new AtomicInteger();
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    // Description text, built on first use
+    private volatile Description described;
+
+    // Command dispatch, built on first use
+    private volatile Action[] handlers;
+    private volatile CommandTable commands;
 
     /**
      * Construct a new basic room which implements the specified set of actions.
@@ -50,33 +127,36 @@ public class RoomImpl extends RoomPOA {
      *            The username of the room server host.
      * @param rs
      *            The callback room server.
-     * @param mazeWidth
-     *            The maze width.
-     * @param mazeHeight
-     *            The maze height.
+     * @param outbox
+     *            The outbound message queue.
+     * @param executor
+     *            The executor which runs the room's callbacks.
+     * @param geometry
+     *            The maze geometry.
      * @param actions
-     *            A set of actions that the room implements.
+     *            A list of actions that the room implements.
      */
     public RoomImpl(final int no, final String user, final CBRoomServer rs,
-            final int mazeWidth, final int mazeHeight,
-            final HashSet<Action> actions) {
+            final Outbox outbox, final Executor executor,
+            final MazeGeometry geometry, final ArrayList<Action> actions) {
 
         this.no = no;
         this.user = user;
         this.id = new RoomID(user, no);
         this.location = new ItemLocation();
         this.rs = rs;
+        this.outbox = outbox;
+        this.executor = executor;
 
         location.r(this.id);
 
         this.actions = actions;
-        this.players = new HashSet<Player>();
-        this.items = new HashSet<Item>();
+        this.players = new CopyOnWriteArraySet<Player>();
+        this.items = Collections
+                .newSetFromMap(new ConcurrentHashMap<Item, Boolean>());
+        this.scrolls = new ConcurrentHashMap<Player, Outbox.Scroll>();
 
-        this.mazeSize = mazeWidth * mazeHeight;
-        this.mazeWidth = mazeWidth;
-        this.mazeHeight = mazeHeight;
-        this.invalidNo = mazeHeight * mazeWidth + 1;
+        this.geometry = geometry;
 
         // Default room behaviour
         this.actions.add(new Go(this));
@@ -95,14 +175,17 @@ public class RoomImpl extends RoomPOA {
      *            The username of the room server host.
      * @param rs
      *            The callback room server.
-     * @param mazeWidth
-     *            The maze width.
-     * @param mazeHeight
-     *            The maze height.
+     * @param outbox
+     *            The outbound message queue.
+     * @param executor
+     *            The executor which runs the room's callbacks.
+     * @param geometry
+     *            The maze geometry.
      */
     public RoomImpl(final int no, final String user, final CBRoomServer rs,
-            final int mazeWidth, final int mazeHeight) {
-        this(no, user, rs, mazeWidth, mazeHeight, new HashSet<Action>());
+            final Outbox outbox, final Executor executor,
+            final MazeGeometry geometry) {
+        this(no, user, rs, outbox, executor, geometry, new ArrayList<Action>());
     }
 
     /*
@@ -110,84 +193,256 @@ public class RoomImpl extends RoomPOA {
      */
 
     @Override
-    public synchronized void player_entered(final Player p) {
-        SystemIO.log("player_entered(" + playerString(p) + ")");
+    public void player_entered(final Player p) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                playerEntered(p);
+            }
+        });
+    }
 
-        // Notify other players of arrival
-        for (final Player player : players)
-            sendMessage(player, p.real_name() + " has entered the room.");
+    @Override
+    public void player_left(final Player p) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                playerLeft(p);
+            }
+        });
+    }
 
-        this.players.add(p);
+    @Override
+    public void item_added(final Item i) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                itemAdded(i);
+            }
+        });
+    }
 
-        description(p); // Describe room to new player
+    @Override
+    public void item_removed(final Item i) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                itemRemoved(i);
+            }
+        });
     }
 
     @Override
-    public synchronized void player_left(final Player p) {
-        SystemIO.log("player_left(" + playerString(p) + ")");
+    public void send_command(final Player p, final String command) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                outbox.begin(); // Group the responses to the command
+                try {
+                    dispatch(p, command);
+                } finally {
+                    outbox.end();
+                }
+            }
+        });
+    }
 
-        this.players.remove(p);
+    @Override
+    public void ping() {
+        if (SystemIO.isLogging())
+            SystemIO.log("ping() invoked on Room '" + user + "'");
+    }
+
+    /*
+     * Call-back implementations, run by the room's executor:
+     */
 
-        // Notify other players of leaving
-        for (final Player other : players)
-            sendMessage(other, p.real_name() + " has left the room.");
+    /**
+     * Add a player to the room.
+     *
+     * @param p
+     *            The player who entered.
+     */
+    protected void playerEntered(final Player p) {
+        if (SystemIO.isLogging())
+            SystemIO.log("player_entered(" + playerString(p) + ")");
+
+        if (!players.add(p))
+            return; // Already here
+
+        final String arrival = p.real_name() + " has entered the room.";
+
+        outbox.begin();
+        try {
+            // Notify other players of arrival
+            for (final Player player : players) {
+                if (player != p)
+                    sendMessage(player, arrival);
+            }
+
+            description(p); // Describe room to new player
+        } finally {
+            outbox.end();
+        }
     }
 
-    @Override
-    public synchronized void item_added(final Item i) {
-        SystemIO.log("item_added(" + itemString(i) + ")");
+    /**
+     * Remove a player from the room.
+     *
+     * @param p
+     *            The player who left.
+     */
+    protected void playerLeft(final Player p) {
+        if (SystemIO.isLogging())
+            SystemIO.log("player_left(" + playerString(p) + ")");
 
-        if (items.contains(i))
-            SystemIO.error("Attempted to add duplicate item " + itemString(i));
+        if (!players.remove(p))
+            return; // Already gone
+
+        final Outbox.Scroll scroll = scrolls.remove(p);
+        if (scroll != null) // Stop scrolling messages to the player
+            scroll.cancel();
 
-        items.add(i);
+        final String departure = p.real_name() + " has left the room.";
+
+        outbox.begin();
+        try {
+            // Notify other players of leaving
+            for (final Player other : players)
+                sendMessage(other, departure);
+        } finally {
+            outbox.end();
+        }
     }
 
-    @Override
-    public synchronized void item_removed(final Item i) {
-        SystemIO.log("item_removed(" + itemString(i) + ")");
+    /**
+     * Add an item to the room.
+     *
+     * @param i
+     *            The item.
+     */
+    protected void itemAdded(final Item i) {
+        if (SystemIO.isLogging())
+            SystemIO.log("item_added(" + itemString(i) + ")");
 
-        if (!items.contains(i))
+        if (!items.add(i))
+            SystemIO.error("Attempted to add duplicate item " + itemString(i));
+        else
+            recordItem(Journal.ITEM_ADDED, i);
+    }
+
+    /**
+     * Remove an item from the room.
+     *
+     * @param i
+     *            The item.
+     */
+    protected void itemRemoved(final Item i) {
+        if (SystemIO.isLogging())
+            SystemIO.log("item_removed(" + itemString(i) + ")");
+
+        if (!items.remove(i))
             SystemIO.error("Attempted to remove non-existent item "
                     + itemString(i));
+        else
+            recordItem(Journal.ITEM_REMOVED, i);
+    }
+
+    // Journal an item change
+    private void recordItem(final int type, final Item i) {
+        final String item = reference(i);
 
-        items.remove(i);
+        if (item != null)
+            record(type, item);
     }
 
-    @Override
-    public void send_command(final Player p, final String command) {
-        final String s = command.trim().toLowerCase();
+    /*
+     * Public functionality:
+     */
+
+    /**
+     * Process a command from a player. Built in commands are handled by the
+     * room, and any other command is dispatched to the action which handles
+     * its verb.
+     *
+     * @param p
+     *            The player who issued the command.
+     * @param command
+     *            The command string.
+     */
+    protected void dispatch(final Player p, final String command) {
+        int start = 0, end = command.length();
+
+        // Split the command into a verb and arguments
+        while (start < end && Character.isWhitespace(command.charAt(start)))
+            start++;
+        while (end > start && Character.isWhitespace(command.charAt(end - 1)))
+            end--;
+
+        int verbEnd = start;
+        while (verbEnd < end && !Character.isWhitespace(command.charAt(verbEnd)))
+            verbEnd++;
 
         // Built in commands
-        if (s.matches("^help$")) {
-            help(p);
-            return;
-        } else if (s.matches("^description$")) {
-            description(p);
-            return;
+        if (verbEnd == end) {
+            if (isBuiltIn(command, start, end, "help")) {
+                helpCount.increment();
+                help(p);
+                return;
+            } else if (isBuiltIn(command, start, end, "description")) {
+                descriptionCount.increment();
+                description(p);
+                return;
+            }
         }
 
         // Actions functionality
-        for (final Action a : actions) {
-            if (a.process(p, command))
+        final CommandTable table = commandTable();
+        final int i = table.find(command, start, verbEnd);
+        if (i >= 0) {
+            int argsStart = verbEnd;
+            while (argsStart < end
+                    && Character.isWhitespace(command.charAt(argsStart)))
+                argsStart++;
+
+            final String args = argsStart < end ? command.substring(
+                    argsStart, end) : "";
+
+            if (handlers[table.slot(i)].process(p, table.verb(i), args)) {
+                table.handled(i);
                 return;
+            }
         }
 
         // Fall-through
+        unrecognisedCount.increment();
         sendMessage(p, "Unrecognised command!");
     }
 
-    @Override
-    public void ping() {
-        SystemIO.log("ping() invoked on Room '" + user + "'");
+    /**
+     * Return the number of players in the room.
+     *
+     * @return Player count.
+     */
+    public int playerCount() {
+        return players.size();
     }
 
-    /*
-     * Public functionality:
+    /**
+     * Return whether a player is in the room.
+     *
+     * @param p
+     *            The player.
+     * @return True if the player is in the room.
      */
+    public boolean hasPlayer(final Player p) {
+        return players.contains(p);
+    }
 
     /**
-     * Send a message to a specific user.
+     * Send a message to a specific user. The message is queued for delivery,
+     * and this method returns immediately. If the game server reports that the
+     * player is no longer in the room, they are removed from the room.
      *
      * @param p
      *            Message recipient.
@@ -195,15 +450,8 @@ public class RoomImpl extends RoomPOA {
      *            Message contents.
      */
     public void sendMessage(final Player p, final String[] msg) {
-        try {
-            if (players.contains(p)) // Only send message if player is in the room
-                rs.send_message(no, p, msg);
-        } catch (room_not_found e) {
-            SystemIO.error("Room not found!", e);
-        } catch (player_not_in_room e) {
-            SystemIO.error("Player not in room!", e);
-            player_left(p); // Remove from our list
-        }
+        if (hasPlayer(p)) // Only send message if player is in the room
+            outbox.send(this, p, msg);
     }
 
     /**
@@ -247,11 +495,7 @@ public class RoomImpl extends RoomPOA {
      *            Message contents.
      */
     public void broadcastMessage(final String[] msg) {
-        try {
-            rs.broadcast_message(no, msg);
-        } catch (room_not_found e) {
-            SystemIO.error("Room not found!", e);
-        }
+        outbox.broadcast(this, msg);
     }
 
     /**
@@ -265,7 +509,10 @@ public class RoomImpl extends RoomPOA {
     }
 
     /**
-     * Send a multi-line message to a specific player, one line at a time.
+     * Send a multi-line message to a specific player, one line at a time. This
+     * method returns immediately, and the lines are sent in the background. A
+     * player may only have one scrolling message at a time, so any previous
+     * scroll is cancelled. Scrolling stops if the player leaves the room.
      *
      * @param p
      *            Message recipient.
@@ -273,14 +520,15 @@ public class RoomImpl extends RoomPOA {
      *            Message contents.
      */
     public void scrollMessage(final Player p, final String[] msg) {
-        try {
-            for (int i = 0; i < msg.length; i++) {
-                sendMessage(p, msg[i]);
-                Thread.sleep(1250);
-            }
-        } catch (InterruptedException e) {
-            SystemIO.error("Scroll message interrupted!", e);
-        }
+        final Outbox.Scroll scroll = outbox.scroll(this, p, msg);
+        final Outbox.Scroll previous = scrolls.put(p, scroll);
+
+        if (previous != null)
+            previous.cancel();
+
+        // The player may have left before the scroll was registered
+        if (!players.contains(p) && scrolls.remove(p, scroll))
+            scroll.cancel();
     }
 
     /**
@@ -292,8 +540,10 @@ public class RoomImpl extends RoomPOA {
      *            Destination.
      */
     public void movePlayer(final Player p, final String dest) {
-        if (destinationIsRelativeDirection(dest))
-            movePlayer(p, new RoomID(user, destinationToRoomNumber(dest)));
+        final int direction = MazeGeometry.direction(dest);
+
+        if (direction >= 0)
+            movePlayer(p, geometry.destination(user, no, direction));
         else
             movePlayer(p, new RoomID(dest, 0));
     }
@@ -307,9 +557,13 @@ public class RoomImpl extends RoomPOA {
      *            Destination.
      */
     public void movePlayer(final Player p, final RoomID dest) {
+        final long start = System.nanoTime();
+
         try {
             rs.move_player(no, p, dest);
+            Metrics.call(Metrics.Call.MOVE_PLAYER, start);
         } catch (room_not_found e) {
+            Metrics.roomNotFound();
             sendMessage(p, "You can't go there");
         } catch (cant_move_player e) {
             SystemIO.error("Can't move player!", e);
@@ -323,7 +577,7 @@ public class RoomImpl extends RoomPOA {
      *            Recipient player.
      */
     protected void help(final Player p) {
-        sendMessage(p, getActionsHelpText());
+        sendMessage(p, commandTable().help());
     }
 
     /**
@@ -345,79 +599,281 @@ public class RoomImpl extends RoomPOA {
      *            A description message prefix.
      */
     protected void description(final Player p, final String message) {
-        String s = message.length() > 0 ? message + " " : "";
+        Description d = described;
 
-        if (players.size() > 1)
-            s += "You are not alone";
-        else
-            s += "You are alone";
+        if (d == null || !d.message.equals(message))
+            described = d = new Description(message);
+
+        sendMessage(p, d.text(players.size() <= 1));
+    }
+
+    /*
+     * Servant lifecycle:
+     */
 
-        s += ". From here, you can go ";
+    /**
+     * Save the state of the room which cannot be regenerated from the maze
+     * seed: the references of the items left in it. Subclasses which hold
+     * further state extend this.
+     *
+     * @param state
+     *            The state to save into.
+     */
+    protected void save(final RoomState state) {
+        for (final Item i : items) {
+            final String item = reference(i);
+
+            if (item != null)
+                state.items.add(item);
+        }
+    }
 
-        for (final String d : directions) {
-            if (destinationToRoomNumber(d) != invalidNo)
-                s += d + ", ";
+    /**
+     * Restore the saved state of the room, once it has been generated after a
+     * restart. Item references are restored without contacting the game
+     * server. Subclasses which hold further state extend this.
+     *
+     * @param state
+     *            The saved state.
+     */
+    protected void restore(final RoomState state) {
+        if (state.items.isEmpty())
+            return;
+
+        if (!(rs instanceof ObjectImpl)) {
+            SystemIO.warning("Cannot restore the items of room " + no);
+            return;
         }
 
-        sendMessage(p, s.substring(0, s.length() - 2) + ".");
+        final ORB orb = ((ObjectImpl) rs)._orb();
+
+        for (final String item : state.items) {
+            try {
+                items.add(ItemHelper.unchecked_narrow(orb
+                        .string_to_object(item)));
+            } catch (org.omg.CORBA.SystemException e) {
+                SystemIO.error("Failed to restore an item of room " + no + "!",
+                        e);
+            }
+        }
     }
 
     /**
-     * Convert a relative destination into an absolute room number.
+     * Record a change to the state of the room in the journal. The record is
+     * forced to disk by the journal's committer, so callbacks do not wait for
+     * the disk. The change must already have been made. Does nothing if the
+     * room is not journalled.
      *
-     * @param destination
-     *            Destination string.
-     * @return The destination room number, or invalidNo if destination is nor
-     *         relative.
+     * @param type
+     *            The journal record type.
+     * @param data
+     *            The journal record data.
      */
-    private int destinationToRoomNumber(final String destination) {
-        final int x = (no + mazeWidth / 2) % mazeWidth;
-        final int minRoomNumber = -mazeSize / 2;
-        final int maxRoomNumber = mazeSize / 2;
-
-        if (destination.matches("north"))
-            return no + mazeWidth <= maxRoomNumber ? no + mazeWidth : invalidNo;
-        else if (destination.matches("east"))
-            return (x + 1) % mazeWidth > x && (no + 1) <= maxRoomNumber ? no + 1
-                    : invalidNo;
-        else if (destination.matches("south"))
-            return no - mazeWidth >= minRoomNumber ? no - mazeWidth : invalidNo;
-        else if (destination.matches("west"))
-            return (x - 1) % mazeWidth < x && (no - 1) >= minRoomNumber ? no - 1
-                    : invalidNo;
-        else
-            return invalidNo; // Destination is not a relative direction
+    public void record(final int type, final String data) {
+        final Journal j = journal;
+
+        if (j != null) {
+            try {
+                j.write(type, no, data);
+            } catch (IOException e) {
+                SystemIO.error("Failed to journal room " + no + "!", e);
+            }
+        }
     }
 
-    // Match a relative direction
-    private static boolean destinationIsRelativeDirection(final String direction) {
-        return direction.matches("(north)|(east)|(south)|(west)");
+    // Set the journal of state changes, before the room is published
+    void setJournal(final Journal journal) {
+        this.journal = journal;
     }
 
-    // Stringify item
-    private static String itemString(final Item i) {
-        return i.item_id() + ":" + i.item_name();
+    /**
+     * Return whether the room may be evicted from memory while it is empty. A
+     * room which holds state that cannot be rebuilt should return false.
+     *
+     * @return True if the room may be evicted.
+     */
+    protected boolean isEvictable() {
+        return true;
     }
 
-    // Stringify player
-    private static String playerString(final Player p) {
-        return p.user_name() + ":" + p.real_name();
+    // Run a callback through the room's executor. The room is pinned until the
+    // callback has run, so that it cannot be evicted while the callback waits.
+    private void submit(final Runnable callback) {
+        final boolean pinned = pin();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.run();
+                } finally {
+                    if (pinned)
+                        unpin();
+                }
+            }
+        });
     }
 
-    // Get the help text for a given set of actions.
-    private String[] getActionsHelpText() {
-        String[] s = new String[actions.size() + 2];
-        int i = 2;
+    // Remove a player whom the game server reports is no longer in the room,
+    // through the pinned path that CORBA requests take. An evicted room holds
+    // no players, so there is nothing to remove from it.
+    void playerGone(final Player p) {
+        if (!pin())
+            return;
 
-        s[0] = "/help                     - show this text";
-        s[1] = "/description              - describe the room";
+        try {
+            player_left(p);
+        } finally {
+            unpin();
+        }
+    }
 
-        for (Iterator<Action> it = actions.iterator(); it.hasNext();) {
-            s[i] = it.next().getHelpText();
-            i++;
+    // Mark a request as in progress. Returns false if the room was evicted.
+    boolean pin() {
+        while (true) {
+            final int n = pins.get();
+
+            if (n == EVICTED)
+                return false;
+            else if (n == EVICTING) // Wait for the eviction check
+                Thread.yield();
+            else if (pins.compareAndSet(n, n + 1))
+                return true;
         }
+    }
+
+    // Mark a request as complete
+    void unpin() {
+        lastUsed = System.currentTimeMillis();
+        pins.decrementAndGet();
+    }
+
+    // The time of the last completed request
+    long lastUsed() {
+        return lastUsed;
+    }
 
-        return s;
+    // Attempt to evict the room. Succeeds only if the room is empty and idle,
+    // after which no further requests will be accepted.
+    boolean evict() {
+        if (!isEvictable() || !pins.compareAndSet(0, EVICTING))
+            return false;
+
+        // No request can change the room while it is being checked
+        if (!players.isEmpty() || !items.isEmpty()) {
+            pins.set(0);
+            return false;
+        }
+
+        pins.set(EVICTED);
+
+        for (final Outbox.Scroll s : scrolls.values())
+            s.cancel();
+
+        return true;
+    }
+
+    // Return the command dispatch table, building it on first use
+    private CommandTable commandTable() {
+        final CommandTable table = commands;
+
+        return table != null ? table : buildCommandTable();
+    }
+
+    // Build the command dispatch table. Actions are added by subclass
+    // constructors, so the table cannot be built until the room is complete.
+    private CommandTable buildCommandTable() {
+        final CommandTable table = CommandTable.forRoom(getClass(), actions,
+                builtInHelp);
+
+        handlers = actions.toArray(new Action[actions.size()]);
+        commands = table; // Publish after handlers
+
+        return table;
+    }
+
+    /**
+     * The description of a room, built once for when a player is alone and
+     * once for when they are not. Payloads are immutable, and shared with any
+     * other room which has the same description.
+     */
+    private final class Description {
+
+        final String message;
+
+        // Races to build the text are benign, as both threads build the same
+        // immutable payload
+        private String[] alone, company;
+
+        Description(final String message) {
+            this.message = message;
+        }
+
+        String[] text(final boolean isAlone) {
+            String[] s = isAlone ? alone : company;
+
+            if (s == null) {
+                final StringBuilder b = new StringBuilder(message.length() + 64);
+
+                if (message.length() > 0)
+                    b.append(message).append(' ');
+                b.append(isAlone ? "You are alone" : "You are not alone");
+                b.append(exits[geometry.exits(no)]);
+
+                s = payload(b.toString());
+                if (isAlone)
+                    alone = s;
+                else
+                    company = s;
+            }
+
+            return s;
+        }
+    }
+
+    /**
+     * Empty the pool of shared description payloads, when the descriptions
+     * are replaced. Rooms keep the payloads they have already built, and
+     * descriptions still in use are shared again as they are next built.
+     */
+    static void clearDescriptions() {
+        descriptions.clear();
+    }
+
+    // Return the shared payload of a description
+    private static String[] payload(final String text) {
+        final String[] s = descriptions.get(text);
+
+        if (s != null)
+            return s;
+
+        final String[] payload = new String[] { text.intern() };
+        final String[] previous = descriptions.putIfAbsent(payload[0], payload);
+
+        return previous != null ? previous : payload;
+    }
+
+    // Match a case-insensitive built in command
+    private static boolean isBuiltIn(final String command, final int start,
+            final int end, final String name) {
+        return end - start == name.length()
+                && command.regionMatches(true, start, name, 0, name.length());
+    }
+
+    // Return the stringified reference of an item, or null for a local item
+    private static String reference(final Item i) {
+        return i instanceof ObjectImpl ? ((ObjectImpl) i)._orb()
+                .object_to_string(i) : null;
+    }
+
+    // Stringify item
+    private static String itemString(final Item i) {
+        return i.item_id() + ":" + i.item_name();
+    }
+
+    // Stringify player
+    private static String playerString(final Player p) {
+        return p.user_name() + ":" + p.real_name();
     }
 
 }
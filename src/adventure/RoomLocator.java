@@ -0,0 +1,189 @@
+package adventure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.omg.CORBA.LocalObject;
+import org.omg.CORBA.OBJECT_NOT_EXIST;
+import org.omg.CORBA.UserException;
+import org.omg.PortableServer.ForwardRequest;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.Servant;
+import org.omg.PortableServer.ServantLocator;
+import org.omg.PortableServer.ServantLocatorPackage.CookieHolder;
+
+/**
+ * The servant manager for maze rooms. Room object references carry their room
+ * number as the object ID, and are not bound to a servant. When a request
+ * arrives for a room, the locator finds its servant, building it if needed.
+ * This allows servants to be evicted from memory while their rooms are empty,
+ * and rebuilt on their next request, without invalidating the references held
+ * by the game server.<br/>
+ * <br/>
+ *
+ * Rooms are evicted by sweep(), which removes any room that has been idle for
+ * longer than the idle timeout, and then the least recently used idle rooms
+ * until the number of servants is within the configured cap.
+ *
+ * @author Chris Cummins
+ */
+public final class RoomLocator extends LocalObject implements ServantLocator {
+
+    private static final long serialVersionUID = 7166474906254342170L;
+
+    private final RoomRegistry<RoomImpl> servants;
+    private final RoomRegistry.Builder<RoomImpl> builder;
+    private volatile int maxRooms;
+    private volatile long idleTimeout;
+
+    /**
+     * Create a room locator.
+     *
+     * @param servants
+     *            The registry of live room servants.
+     * @param builder
+     *            Builds or rebuilds a room servant.
+     * @param maxRooms
+     *            The number of servants above which idle rooms are evicted.
+     * @param idleTimeout
+     *            The time after which idle rooms are evicted, in milliseconds.
+     */
+    public RoomLocator(final RoomRegistry<RoomImpl> servants,
+            final RoomRegistry.Builder<RoomImpl> builder, final int maxRooms,
+            final long idleTimeout) {
+        this.servants = servants;
+        this.builder = builder;
+        this.maxRooms = maxRooms;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Change the eviction limits, from the next sweep.
+     *
+     * @param maxRooms
+     *            The number of servants above which idle rooms are evicted.
+     * @param idleTimeout
+     *            The time after which idle rooms are evicted, in milliseconds.
+     */
+    public void setLimits(final int maxRooms, final long idleTimeout) {
+        this.maxRooms = maxRooms;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Encode a room number as an object ID.
+     *
+     * @param n
+     *            The room number.
+     * @return The object ID.
+     */
+    public static byte[] oid(final int n) {
+        return new byte[] { (byte) (n >>> 24), (byte) (n >>> 16),
+                (byte) (n >>> 8), (byte) n };
+    }
+
+    /**
+     * Decode a room number from an object ID.
+     *
+     * @param oid
+     *            The object ID.
+     * @return The room number.
+     */
+    public static int roomNumber(final byte[] oid) {
+        if (oid.length != 4)
+            throw new OBJECT_NOT_EXIST();
+
+        return (oid[0] << 24) | ((oid[1] & 0xff) << 16)
+                | ((oid[2] & 0xff) << 8) | (oid[3] & 0xff);
+    }
+
+    @Override
+    public Servant preinvoke(final byte[] oid, final POA adapter,
+            final String operation, final CookieHolder cookie)
+            throws ForwardRequest {
+        final int n = roomNumber(oid);
+
+        if (!servants.contains(n))
+            throw new OBJECT_NOT_EXIST();
+
+        try {
+            while (true) {
+                final RoomImpl room = servants.get(n, builder);
+
+                if (room.pin())
+                    return room;
+
+                servants.remove(n, room); // Evicted, so rebuild
+            }
+        } catch (UserException e) {
+            SystemIO.error("Failed to activate room " + n + "!", e);
+            throw new OBJECT_NOT_EXIST();
+        }
+    }
+
+    @Override
+    public void postinvoke(final byte[] oid, final POA adapter,
+            final String operation, final Object cookie, final Servant servant) {
+        ((RoomImpl) servant).unpin();
+    }
+
+    /**
+     * Evict idle rooms. Rooms are evicted if they have been idle for longer
+     * than the idle timeout, or if there are more servants than the cap, in
+     * which case the least recently used rooms are evicted first.
+     *
+     * @return The number of rooms evicted.
+     */
+    public int sweep() {
+        final long now = System.currentTimeMillis();
+        final int maxRooms = this.maxRooms;
+        final long idleTimeout = this.idleTimeout;
+        final ArrayList<Candidate> candidates = new ArrayList<Candidate>();
+        int evicted = 0;
+
+        servants.forEach(new RoomRegistry.Visitor<RoomImpl>() {
+            @Override
+            public void visit(final int n, final RoomImpl room) {
+                candidates.add(new Candidate(n, room, room.lastUsed()));
+            }
+        });
+
+        // Least recently used first
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(final Candidate a, final Candidate b) {
+                return Long.compare(a.lastUsed, b.lastUsed);
+            }
+        });
+
+        for (final Candidate c : candidates) {
+            if (now - c.lastUsed < idleTimeout && servants.size() <= maxRooms)
+                break;
+
+            if (c.room.evict() && servants.remove(c.n, c.room))
+                evicted++;
+        }
+
+        if (evicted > 0)
+            SystemIO.log("Evicted " + evicted + " idle rooms, "
+                    + servants.size() + " remain");
+
+        return evicted;
+    }
+
+    /**
+     * A room which may be evicted.
+     */
+    private static final class Candidate {
+        final int n;
+        final RoomImpl room;
+        final long lastUsed; // Snapshot, since the room may be in use
+
+        Candidate(final int n, final RoomImpl room, final long lastUsed) {
+            this.n = n;
+            this.room = room;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
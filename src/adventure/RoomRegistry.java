@@ -0,0 +1,343 @@
+package adventure;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.omg.CORBA.UserException;
+
+/**
+ * A concurrent registry of lazily created room objects, indexed by room
+ * number. A registry may hold room references or room servants. Since
+ * the range of room numbers is known when the registry is created, rooms are
+ * stored in a dense array rather than a map. The array is split into pages
+ * which are only allocated once a room within them is built, and the state of
+ * every room is kept in a primitive array, so that a maze of millions of rooms
+ * costs a few bytes per room until its rooms are visited.<br/>
+ * <br/>
+ *
+ * The registry is lock-free for rooms which have already been created. When a
+ * room is first requested, the requesting thread claims its slot with a
+ * compare-and-set and builds it, while any other threads requesting the same
+ * room wait for the result. This guarantees that each room is built at most
+ * once, without a global lock. Rooms may later be removed from the registry,
+ * after which they will be built again on their next request.
+ *
+ * @param <T>
+ *            The type of room object held.
+ * @author Chris Cummins
+ */
+public final class RoomRegistry<T> {
+
+    /**
+     * A callback used to build rooms on demand.
+     */
+    public interface Builder<T> {
+
+        /**
+         * Build a new room.
+         *
+         * @param n
+         *            The room number.
+         * @return The new room.
+         * @throws UserException
+         *             In case the room cannot be built.
+         */
+        public T build(final int n) throws UserException;
+    }
+
+    /**
+     * A callback used to iterate over the rooms in a registry.
+     */
+    public interface Visitor<T> {
+
+        /**
+         * Visit a room.
+         *
+         * @param n
+         *            The room number.
+         * @param room
+         *            The room.
+         */
+        public void visit(final int n, final T room);
+    }
+
+    /**
+     * Room state flag, set once a room has been built.
+     */
+    public static final byte VISITED = 1;
+
+    // Rooms per page
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // Assumed sizes of heap objects, in bytes
+    private static final int REFERENCE_BYTES = 4;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Object>> pages;
+    private final byte[] state;
+    private final int min;
+    private final int max;
+
+    private final AtomicInteger pageCount = new AtomicInteger();
+    private final AtomicInteger roomCount = new AtomicInteger();
+
+    /**
+     * Create an empty registry for a range of room numbers.
+     *
+     * @param min
+     *            The lowest room number, inclusive.
+     * @param max
+     *            The highest room number, inclusive.
+     */
+    public RoomRegistry(final int min, final int max) {
+        final int rooms = max - min + 1;
+
+        this.pages = new AtomicReferenceArray<AtomicReferenceArray<Object>>(
+                (rooms + PAGE_SIZE - 1) >>> PAGE_BITS);
+        this.state = new byte[rooms];
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Return whether a room number is within the registry's range.
+     *
+     * @param n
+     *            The room number.
+     * @return True if the room number is in range.
+     */
+    public boolean contains(final int n) {
+        return n >= min && n <= max;
+    }
+
+    /**
+     * Return a room, building it if it does not already exist.
+     *
+     * @param n
+     *            The room number, which must be in range.
+     * @param builder
+     *            The room builder, called at most once per room.
+     * @return The room.
+     * @throws UserException
+     *             In case the room could not be built. The slot is released,
+     *             so a later request may try again.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final int n, final Builder<T> builder) throws UserException {
+        final int i = n - min;
+        final AtomicReferenceArray<Object> slots = page(i);
+
+        while (true) {
+            final Object o = slots.get(i & (PAGE_SIZE - 1));
+
+            if (o instanceof Pending) {
+                final Object room = ((Pending) o).await();
+
+                if (room != null)
+                    return (T) room;
+            } else if (o != null) {
+                return (T) o;
+            } else {
+                final Pending pending = new Pending();
+
+                if (slots.compareAndSet(i & (PAGE_SIZE - 1), null, pending))
+                    return build(slots, i, n, pending, builder);
+            }
+        }
+    }
+
+    /**
+     * Return a room if it has been built.
+     *
+     * @param n
+     *            The room number, which must be in range.
+     * @return The room, or null if it has not been built.
+     */
+    @SuppressWarnings("unchecked")
+    public T peek(final int n) {
+        final int i = n - min;
+        final AtomicReferenceArray<Object> slots = pages.get(i >>> PAGE_BITS);
+        final Object o = slots == null ? null : slots.get(i & (PAGE_SIZE - 1));
+
+        return o instanceof Pending ? null : (T) o;
+    }
+
+    /**
+     * Remove a room from the registry, if it is still registered.
+     *
+     * @param n
+     *            The room number, which must be in range.
+     * @param room
+     *            The room to remove.
+     * @return True if the room was removed.
+     */
+    public boolean remove(final int n, final T room) {
+        final int i = n - min;
+        final AtomicReferenceArray<Object> slots = pages.get(i >>> PAGE_BITS);
+
+        if (slots != null && slots.compareAndSet(i & (PAGE_SIZE - 1), room, null)) {
+            roomCount.decrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Visit every room which is currently built. Rooms which are built or
+     * removed during iteration may or may not be visited.
+     *
+     * @param visitor
+     *            The callback to visit each room with.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(final Visitor<T> visitor) {
+        for (int p = 0; p < pages.length(); p++) {
+            final AtomicReferenceArray<Object> slots = pages.get(p);
+
+            if (slots == null)
+                continue;
+
+            for (int j = 0; j < PAGE_SIZE; j++) {
+                final Object o = slots.get(j);
+
+                if (o != null && !(o instanceof Pending))
+                    visitor.visit(min + (p << PAGE_BITS) + j, (T) o);
+            }
+        }
+    }
+
+    /**
+     * Return the state flags of a room.
+     *
+     * @param n
+     *            The room number, which must be in range.
+     * @return The room state flags.
+     */
+    public byte state(final int n) {
+        return state[n - min];
+    }
+
+    /**
+     * Set state flags of a room, e.g. when restoring a saved maze. While the
+     * registry is in use, only the thread building a room may mark it.
+     *
+     * @param n
+     *            The room number, which must be in range.
+     * @param flags
+     *            The state flags to set.
+     */
+    public void mark(final int n, final byte flags) {
+        state[n - min] |= flags;
+    }
+
+    /**
+     * Return the number of rooms in the registry's range.
+     *
+     * @return Room capacity.
+     */
+    public int capacity() {
+        return state.length;
+    }
+
+    /**
+     * Return the number of rooms which have been built.
+     *
+     * @return Built room count.
+     */
+    public int size() {
+        return roomCount.get();
+    }
+
+    /**
+     * Estimate the memory used by the registry itself, excluding the rooms
+     * which it holds, assuming compressed object references.
+     *
+     * @return Registry size, in bytes.
+     */
+    public long footprint() {
+        return ARRAY_HEADER_BYTES + state.length + ARRAY_HEADER_BYTES
+                + (long) pages.length() * REFERENCE_BYTES
+                + (long) pageCount.get()
+                * (ARRAY_HEADER_BYTES + PAGE_SIZE * REFERENCE_BYTES);
+    }
+
+    // Return the page containing a slot, allocating it if required
+    private AtomicReferenceArray<Object> page(final int i) {
+        final int p = i >>> PAGE_BITS;
+        AtomicReferenceArray<Object> page = pages.get(p);
+
+        if (page == null) {
+            final AtomicReferenceArray<Object> fresh = new AtomicReferenceArray<Object>(
+                    PAGE_SIZE);
+
+            if (pages.compareAndSet(p, null, fresh)) {
+                pageCount.incrementAndGet();
+                page = fresh;
+            } else {
+                page = pages.get(p);
+            }
+        }
+
+        return page;
+    }
+
+    // Build a room into a claimed slot
+    private T build(final AtomicReferenceArray<Object> slots, final int i,
+            final int n, final Pending pending, final Builder<T> builder)
+            throws UserException {
+        T room = null;
+
+        try {
+            room = builder.build(n);
+
+            state[i] |= VISITED; // Published by the slot write below
+            slots.set(i & (PAGE_SIZE - 1), room);
+            roomCount.incrementAndGet();
+
+            return room;
+        } finally {
+            // Whatever the builder threw, release the slot and its waiters
+            if (room == null)
+                slots.set(i & (PAGE_SIZE - 1), null);
+
+            pending.complete(room);
+        }
+    }
+
+    /**
+     * A room which is being built by another thread.
+     */
+    private static final class Pending {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Object room;
+
+        // Publish the built room, or null if the builder failed
+        void complete(final Object room) {
+            this.room = room;
+            done.countDown();
+        }
+
+        // Wait for the room. Returns null if the builder failed.
+        Object await() {
+            boolean interrupted = false;
+
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            return room;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package adventure;
+
+import java.util.Map;
+
+/**
+ * The management interface of a maze, registered with the platform MBean
+ * server as "adventure:type=RoomServer" with the quoted user of the maze as its
+ * name. Only the figures of the maze itself are given here: commands, failures
+ * and latencies are counted for the whole process, by MetricsMXBean.
+ *
+ * @author Chris Cummins
+ */
+public interface RoomServerMXBean {
+
+    /**
+     * @return The number of room servants in memory.
+     */
+    public int getLiveServants();
+
+    /**
+     * @return The number of rooms in memory with at least one player.
+     */
+    public int getActiveRooms();
+
+    /**
+     * @return The number of players in all rooms.
+     */
+    public int getPlayers();
+
+    /**
+     * @return The number of players in each active room, by room number.
+     */
+    public Map<Integer, Integer> getPlayersPerRoom();
+
+    /**
+     * @return The number of messages waiting to be sent to the game server.
+     */
+    public int getOutboxDepth();
+
+    /**
+     * @return The number of rooms waiting for a worker thread.
+     */
+    public int getDispatcherDepth();
+
+    /**
+     * @return The number of journal records waiting to be forced to disk.
+     */
+    public long getJournalDepth();
+}
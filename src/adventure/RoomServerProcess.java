@@ -1,7 +1,10 @@
 package adventure;
 
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -10,6 +13,8 @@ import org.omg.CORBA.ORBPackage.InvalidName;
 import org.omg.PortableServer.POA;
 import org.omg.PortableServer.POAHelper;
 import org.omg.PortableServer.POAManagerPackage.AdapterInactive;
+import org.omg.PortableServer.POAPackage.AdapterAlreadyExists;
+import org.omg.PortableServer.POAPackage.InvalidPolicy;
 import org.omg.PortableServer.POAPackage.ServantNotActive;
 import org.omg.PortableServer.POAPackage.WrongPolicy;
 
@@ -17,6 +22,11 @@ import org.omg.PortableServer.POAPackage.WrongPolicy;
  * A thread of serving room requests, which handles the network IO and acts as
  * middleware between the game server and individual rooms.
  * 
+ * A process may serve several mazes. The mazes share one ORB and its request
+ * threads, the log, the metrics and the configuration file, but each has its
+ * own adapter, outbox, dispatcher, journal, save file and message walls, and
+ * registers with the game server as its own user.
+ * 
  * @author Chris Cummins
  */
 public final class RoomServerProcess extends Thread {
@@ -28,16 +38,23 @@ public final class RoomServerProcess extends Thread {
     private final POA poa;
 
     private final GameServer gs;
-    private final CBRoomServer rs;
-    private final IRoomServerImpl rsi;
+    private final List<Shard> shards;
+    private final MetricsEndpoint endpoint; // Null if disabled
+    private final ConfigWatcher watcher; // Null unless watching
 
     private boolean shutdown_started = false;
 
     /**
-     * Create a room server process.
+     * Create a room server process, serving every maze of a configuration.
      * 
      * @param config
      *            The server configuration.
+     * @param save
+     *            The save file of the first maze, read at startup if it
+     *            exists and written at shutdown. Changes between saves are
+     *            recorded in a journal alongside it. The save file of each
+     *            other maze has the maze's user inserted before the extension,
+     *            e.g. adventure.user.sav.
      * @throws registration_failed
      *             In case the attempt to register a user with the game server
      *             fails.
@@ -53,10 +70,15 @@ public final class RoomServerProcess extends Thread {
      *             adapter.
      * @throws InvalidName
      *             In case a service cannot be found.
+     * @throws AdapterAlreadyExists
+     *             In case a room adapter has already been created.
+     * @throws InvalidPolicy
+     *             In case the ORB does not support the room adapter policies.
      */
-    public RoomServerProcess(final Config config) throws registration_failed,
-            ServantNotActive, WrongPolicy, ConfigParseException,
-            AdapterInactive, InvalidName {
+    public RoomServerProcess(final Config config, final File save)
+            throws registration_failed, ServantNotActive, WrongPolicy,
+            ConfigParseException, AdapterInactive, InvalidName,
+            AdapterAlreadyExists, InvalidPolicy {
 
         setCorbaLogLevel(java.util.logging.Level.SEVERE); // Log everything
 
@@ -65,9 +87,21 @@ public final class RoomServerProcess extends Thread {
         this.poa = getPOA();
 
         this.gs = getGameServer(); // Connect to game server
-        this.rsi = getIRoomServerImpl();
-        this.rs = rsi.roomServer(getRoomServer()); // Register self with game
-                                                   // server
+        this.shards = getShards(save); // Register each maze with game server
+
+        boolean warm = false;
+        try {
+            for (final Shard shard : shards)
+                shard.rsi.warmUp(); // Build rooms before the server is ready
+            warm = true;
+        } finally {
+            if (!warm)
+                shutdown(shards);
+        }
+
+        Metrics.register();
+        this.endpoint = getMetricsEndpoint();
+        this.watcher = getConfigWatcher();
 
         // Register shutdown hook
         Runtime.getRuntime().addShutdownHook(new ShutdownThread());
@@ -111,23 +145,232 @@ public final class RoomServerProcess extends Thread {
         return GameServerHelper.narrow(o);
     }
 
-    private CBRoomServer getRoomServer() throws ConfigParseException,
-            ServantNotActive, WrongPolicy, registration_failed {
-        final String user = cfg.getUser();
-        final String hash = cfg.getSecretHash();
-        final IRoomServer s = getIRoomServer();
+    private List<Shard> getShards(final File save)
+            throws registration_failed, ServantNotActive, WrongPolicy,
+            ConfigParseException, AdapterAlreadyExists, InvalidPolicy {
+        final List<Config> mazes = cfg.getMazes();
+        final List<Shard> list = new ArrayList<Shard>(mazes.size());
+
+        try {
+            for (int i = 0; i < mazes.size(); i++) {
+                final Config maze = mazes.get(i);
+
+                list.add(new Shard(maze, i == 0 ? save : getSaveFile(save,
+                        maze.getUser())));
+            }
+        } finally {
+            if (list.size() < mazes.size())
+                shutdown(list); // Unregister the mazes registered so far
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+
+    // Save and unregister each maze, whatever the others do
+    private static void shutdown(final List<Shard> shards) {
+        for (final Shard shard : shards) {
+            try {
+                shard.shutdown();
+            } catch (Exception e) {
+                SystemIO.error("Failed to shutdown maze '" + shard.user
+                        + "'!", e);
+            }
+        }
+    }
+
+    private MetricsEndpoint getMetricsEndpoint() {
+        final int port = cfg.getMetricsPort();
+
+        if (port == 0)
+            return null;
+
+        try {
+            return new MetricsEndpoint(port);
+        } catch (IOException e) {
+            SystemIO.warning("Failed to serve metrics on port " + port + ": "
+                    + e);
+            return null;
+        }
+    }
+
+    private ConfigWatcher getConfigWatcher() {
+        if (!cfg.getWatchConfig())
+            return null;
+
+        try {
+            final ConfigWatcher w = new ConfigWatcher(cfg.getFile(),
+                    new ConfigWatcher.Listener() {
+                        @Override
+                        public int reload(final Config config)
+                                throws ConfigParseException {
+                            SystemIO.setLevel(config.getLogLevel());
+                            SystemIO.setOverflow(config.getLogOverflow());
+
+                            return reconfigure(config);
+                        }
+                    });
 
-        return gs.register(user, hash, s);
+            w.start();
+            return w;
+        } catch (IOException e) {
+            SystemIO.error("Failed to watch configuration file!", e);
+            return null;
+        }
     }
 
-    private IRoomServerImpl getIRoomServerImpl() throws ConfigParseException {
-        return (IRoomServerImpl) new Maze(cfg, poa);
+    // Apply a reloaded configuration to each maze, matched by user
+    private int reconfigure(final Config config) throws ConfigParseException {
+        int changed = 0;
+
+        if (config.getMetricsPort() != cfg.getMetricsPort())
+            SystemIO.warning("Changes to metrics-port take effect at restart");
+
+        for (final Config maze : config.getMazes()) {
+            final Shard shard = getShard(maze.getUser());
+
+            if (shard != null)
+                changed += shard.rsi.reconfigure(maze);
+            else
+                SystemIO.warning("Maze '" + maze.getUser()
+                        + "' will be served after restart");
+        }
+
+        for (final Shard shard : shards) {
+            if (!hasMaze(config, shard.user))
+                SystemIO.warning("Maze '" + shard.user
+                        + "' will be served until restart");
+        }
+
+        return changed;
+    }
+
+    private static boolean hasMaze(final Config config, final String user) {
+        for (final Config maze : config.getMazes()) {
+            if (maze.getUser().equals(user))
+                return true;
+        }
+
+        return false;
+    }
+
+    private Shard getShard(final String user) {
+        for (final Shard shard : shards) {
+            if (shard.user.equals(user))
+                return shard;
+        }
+
+        return null;
     }
 
-    private IRoomServer getIRoomServer() throws ServantNotActive, WrongPolicy {
-        org.omg.CORBA.Object o = poa.servant_to_reference(rsi);
+    // The save file of a maze, with its user inserted before the extension
+    private static File getSaveFile(final File save, final String user) {
+        final String name = save.getName();
+        final int dot = name.lastIndexOf('.');
 
-        return IRoomServerHelper.narrow(o);
+        return new File(save.getParentFile(), dot > 0 ? name.substring(0,
+                dot) + '.' + user + name.substring(dot) : name + '.' + user);
+    }
+
+    // Read a save file, returning null if there is none or it cannot be used
+    private static Snapshot readSnapshot(final File save) {
+        if (!save.isFile())
+            return null;
+
+        try {
+            SystemIO.log("Reading save file '" + save.getPath() + "'...");
+            return Snapshot.read(save);
+        } catch (IOException e) {
+            SystemIO.error("Ignoring save file '" + save.getPath() + "': "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Journal getJournal(final File save) {
+        try {
+            return new Journal(save);
+        } catch (IOException e) {
+            SystemIO.error("Failed to open journal, changes will only be "
+                    + "saved at shutdown!", e);
+            return null;
+        }
+    }
+
+    /**
+     * One maze served by the process, with its own adapter, journal and
+     * registration.
+     * 
+     * @author Chris Cummins
+     */
+    private final class Shard {
+
+        final String user;
+        final File save;
+        final Journal journal;
+        final IRoomServerImpl rsi;
+        final CBRoomServer rs;
+
+        Shard(final Config maze, final File save) throws registration_failed,
+                ServantNotActive, WrongPolicy, ConfigParseException,
+                AdapterAlreadyExists, InvalidPolicy {
+            this.user = maze.getUser();
+            this.save = save;
+            this.journal = getJournal(save);
+            // Restore the save and replay the journal
+            this.rsi = new Maze(maze, poa, readSnapshot(save), journal);
+
+            CBRoomServer callback = null;
+            try {
+                // Rooms are built with this callback
+                callback = rsi.roomServer(gs.register(user,
+                        maze.getSecretHash(), getIRoomServer()));
+
+                if (callback == null)
+                    throw new registration_failed("Game server returned no "
+                            + "callback for user '" + user + "'");
+            } finally {
+                if (callback == null) { // Stop the maze, which is not served
+                    rsi.shutdown();
+                    if (journal != null)
+                        journal.close();
+                }
+            }
+
+            this.rs = callback;
+        }
+
+        private IRoomServer getIRoomServer() throws ServantNotActive,
+                WrongPolicy {
+            org.omg.CORBA.Object o = poa.servant_to_reference(rsi);
+
+            return IRoomServerHelper.narrow(o);
+        }
+
+        /**
+         * Save the maze, deliver its outbound messages and unregister it.
+         */
+        void shutdown() throws Exception {
+            try {
+                final long mark = journal != null ? journal.mark() : 0;
+                final Snapshot snapshot = rsi.snapshot();
+
+                if (snapshot != null) {
+                    SystemIO.log("Saving state to '" + save.getPath() + "'");
+                    if (journal != null)
+                        journal.compact(snapshot, mark);
+                    else
+                        snapshot.write(save);
+                }
+            } finally {
+                try {
+                    rsi.shutdown(); // Flush outbound messages
+                    if (journal != null)
+                        journal.close();
+                } finally {
+                    rs.unregister(); // Unregister with game server
+                }
+            }
+        }
     }
 
     /**
@@ -148,19 +391,19 @@ public final class RoomServerProcess extends Thread {
                 shutdown_started = true;
                 SystemIO.warning("Server shutdown started");
                 
+                if (watcher != null)
+                    watcher.close();
+                if (endpoint != null)
+                    endpoint.stop();
+                Metrics.unregister();
+
+                // Never exit from a shutdown hook, the JVM would deadlock
+                shutdown(shards);
+
                 try {
-                    SystemIO.log("Saving state to 'adventure.sav'");
-                    FileOutputStream fileOut =
-                            new FileOutputStream("adventure.sav");
-                            ObjectOutputStream out = new ObjectOutputStream(fileOut);
-                            out.writeObject(rsi);
-                            out.close();
-                            fileOut.close();
-                    
-                    rs.unregister(); // Unregister with game server
                     orb.shutdown(false); // Initiate ORB shutdown
                 } catch (Exception e) {
-                    SystemIO.fatal_error("Failed to shutdown server!");
+                    SystemIO.error("Failed to shutdown server!", e);
                 }
             }
         }
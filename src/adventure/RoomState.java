@@ -0,0 +1,45 @@
+package adventure;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * The state of a room which cannot be regenerated from the maze seed: the
+ * items left in it, the number of messages written on its wall, and the games
+ * being played in it. Room states are saved in snapshots, and given back to
+ * their rooms when the rooms are next built.
+ *
+ * @author Chris Cummins
+ */
+public final class RoomState {
+
+    public final int room;
+
+    // Stringified references of the items in the room
+    public final LinkedHashSet<String> items = new LinkedHashSet<String>();
+
+    // Number of messages written on the wall
+    public long walls;
+
+    // The number to guess in each game in progress, keyed by user name
+    public final LinkedHashMap<String, Integer> games = new LinkedHashMap<String, Integer>();
+
+    /**
+     * Create the empty state of a room.
+     *
+     * @param room
+     *            The room number.
+     */
+    public RoomState(final int room) {
+        this.room = room;
+    }
+
+    /**
+     * Return whether the room has any state to save.
+     *
+     * @return True if the room is as generated.
+     */
+    public boolean isEmpty() {
+        return items.isEmpty() && walls == 0 && games.isEmpty();
+    }
+}
@@ -0,0 +1,270 @@
+package adventure;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * A saved room server state. Snapshots are written at shutdown and read back at
+ * startup, using a versioned binary format. All values are big-endian:<br/>
+ * <br/>
+ *
+ * <pre>
+ * int     magic ("ADVS")
+ * int     version
+ * long    maze seed
+ * int     maze width
+ * int     maze height
+ * int     number of room descriptions
+ * string  room descriptions, each an int length followed by UTF-8 bytes
+ * int     length of the visited rooms bitmap, in bytes
+ * byte[]  visited rooms bitmap, one bit per room from the lowest room number
+ * int     number of room states
+ * state   room states, each:
+ *           int     room number
+ *           int     number of items
+ *           string  stringified item references
+ *           long    number of wall messages
+ *           int     number of games
+ *           game    games, each a string user name and an int number
+ * long    CRC32 of all of the preceding bytes
+ * </pre>
+ *
+ * Strings are an int length followed by UTF-8 bytes. Rooms are generated as a
+ * pure function of the seed and descriptions, so only the state which players
+ * have changed is saved for each room. Version 1 snapshots, which have no room
+ * states, may still be read.
+ *
+ * @author Chris Cummins
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x41445653; // "ADVS"
+    private static final int VERSION = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public final long seed;
+    public final int width;
+    public final int height;
+    public final String[] descriptions;
+
+    // Visited rooms, indexed from the lowest room number
+    public final BitSet visited;
+
+    // The state of each room which has changed since it was generated
+    public final RoomState[] rooms;
+
+    /**
+     * Create a snapshot.
+     *
+     * @param seed
+     *            The maze seed.
+     * @param width
+     *            The maze width.
+     * @param height
+     *            The maze height.
+     * @param descriptions
+     *            The room descriptions.
+     * @param visited
+     *            The visited rooms, indexed from the lowest room number.
+     * @param rooms
+     *            The state of each room which has changed.
+     */
+    public Snapshot(final long seed, final int width, final int height,
+            final String[] descriptions, final BitSet visited,
+            final RoomState[] rooms) {
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        this.descriptions = descriptions;
+        this.visited = visited;
+        this.rooms = rooms;
+    }
+
+    /**
+     * Write the snapshot to a file. The snapshot is written to a temporary
+     * file which then replaces the target, so an interrupted write never
+     * destroys an existing snapshot.
+     *
+     * @param file
+     *            The file to write.
+     * @throws IOException
+     *             In case of error while writing the file.
+     */
+    public void write(final File file) throws IOException {
+        final byte[][] strings = encode(descriptions);
+        final byte[] bitmap = visited.toByteArray();
+        final byte[][][] items = new byte[rooms.length][][];
+        final byte[][][] players = new byte[rooms.length][][];
+        int size = 4 + 4 + 8 + 4 + 4 + 4 + length(strings) + 4 + bitmap.length
+                + 4 + 8;
+
+        for (int r = 0; r < rooms.length; r++) {
+            items[r] = encode(rooms[r].items.toArray(new String[0]));
+            players[r] = encode(rooms[r].games.keySet().toArray(new String[0]));
+            size += 4 + 4 + 8 + 4 + length(items[r]) + length(players[r])
+                    + 4 * players[r].length;
+        }
+
+        final ByteBuffer b = ByteBuffer.allocate(size);
+
+        b.putInt(MAGIC).putInt(VERSION).putLong(seed).putInt(width)
+                .putInt(height).putInt(strings.length);
+        for (final byte[] s : strings)
+            b.putInt(s.length).put(s);
+        b.putInt(bitmap.length).put(bitmap);
+
+        b.putInt(rooms.length);
+        for (int r = 0; r < rooms.length; r++) {
+            b.putInt(rooms[r].room).putInt(items[r].length);
+            for (final byte[] s : items[r])
+                b.putInt(s.length).put(s);
+
+            b.putLong(rooms[r].walls).putInt(players[r].length);
+            int p = 0;
+            for (final int number : rooms[r].games.values()) {
+                b.putInt(players[r][p].length).put(players[r][p++]);
+                b.putInt(number);
+            }
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.position());
+        b.putLong(crc.getValue());
+        b.flip();
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        final FileChannel channel = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            while (b.hasRemaining())
+                channel.write(b);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot from a file.
+     *
+     * @param file
+     *            The file to read.
+     * @return The snapshot.
+     * @throws IOException
+     *             In case of error while reading the file, or if the file is
+     *             not a valid snapshot.
+     */
+    public static Snapshot read(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        final ByteBuffer b;
+
+        try {
+            final long size = channel.size();
+
+            if (size < 8 || size > Integer.MAX_VALUE)
+                throw new IOException("Invalid save file size!");
+
+            b = ByteBuffer.allocate((int) size);
+            while (b.hasRemaining() && channel.read(b) >= 0)
+                ;
+            b.flip();
+        } finally {
+            channel.close();
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.limit() - 8);
+        if (crc.getValue() != b.getLong(b.limit() - 8))
+            throw new IOException("Save file checksum mismatch!");
+        b.limit(b.limit() - 8);
+
+        try {
+            if (b.getInt() != MAGIC)
+                throw new IOException("Not a save file!");
+
+            final int version = b.getInt();
+            if (version != VERSION && version != 1)
+                throw new IOException("Unsupported save file version "
+                        + version + "!");
+
+            final long seed = b.getLong();
+            final int width = b.getInt();
+            final int height = b.getInt();
+            final String[] descriptions = new String[b.getInt()];
+
+            for (int i = 0; i < descriptions.length; i++)
+                descriptions[i] = string(b);
+
+            final int length = b.getInt();
+            final ByteBuffer bitmap = b.slice();
+            bitmap.limit(length);
+            final BitSet visited = BitSet.valueOf(bitmap);
+            b.position(b.position() + length);
+
+            final RoomState[] rooms = new RoomState[version == 1 ? 0 : b
+                    .getInt()];
+
+            for (int r = 0; r < rooms.length; r++) {
+                final RoomState room = rooms[r] = new RoomState(b.getInt());
+
+                for (int i = b.getInt(); i > 0; i--)
+                    room.items.add(string(b));
+
+                room.walls = b.getLong();
+
+                for (int i = b.getInt(); i > 0; i--)
+                    room.games.put(string(b), b.getInt());
+            }
+
+            return new Snapshot(seed, width, height, descriptions, visited,
+                    rooms);
+        } catch (RuntimeException e) { // Underflow, negative sizes
+            throw new IOException("Malformed save file!", e);
+        }
+    }
+
+    // Encode strings as UTF-8
+    private static byte[][] encode(final String[] strings) {
+        final byte[][] bytes = new byte[strings.length][];
+
+        for (int i = 0; i < strings.length; i++)
+            bytes[i] = strings[i].getBytes(UTF8);
+
+        return bytes;
+    }
+
+    // The size of encoded strings, with their lengths
+    private static int length(final byte[][] strings) {
+        int size = 0;
+
+        for (final byte[] s : strings)
+            size += 4 + s.length;
+
+        return size;
+    }
+
+    // Read a string written with its length
+    private static String string(final ByteBuffer b) {
+        final byte[] s = new byte[b.getInt()];
+
+        b.get(s);
+
+        return new String(s, UTF8);
+    }
+}
@@ -1,39 +1,117 @@
 package adventure;
 
 /**
- * System logging and debugging outputs.
- * 
+ * System logging and debugging outputs. Messages are written asynchronously by
+ * an AsyncLogger, so logging never blocks on console I/O. Messages below the
+ * current log level are discarded, and callers which build expensive messages
+ * should check isLogging() first.
+ *
  * @author Marc Eberhard, Chris Cummins
  */
 public class SystemIO {
 
-    public static synchronized void log(String message) {
-        final String now = new java.util.Date().toString();
-        System.out.println(now + " OK:      " + message);
+    /**
+     * Log levels, in order of increasing severity. Setting the level to OFF
+     * disables all messages.
+     */
+    public enum Level {
+        OK, WARNING, ERROR, OFF
     }
 
-    public static synchronized void warning(String message) {
-        final String now = new java.util.Date().toString();
-        System.err.println(now + " WARNING: " + message);
+    // Ring buffer capacity, in messages
+    private static final int LOG_CAPACITY = 8192;
+
+    // Maximum time to wait for messages to be written before exit
+    private static final long EXIT_TIMEOUT = 2000;
+
+    private static final AsyncLogger logger = new AsyncLogger(LOG_CAPACITY,
+            AsyncLogger.Overflow.BLOCK);
+
+    private static volatile Level level = Level.OK;
+
+    /**
+     * Set the minimum level of messages which are logged.
+     *
+     * @param level
+     *            The log level.
+     */
+    public static void setLevel(final Level level) {
+        SystemIO.level = level;
+    }
+
+    /**
+     * Set the behaviour when messages are logged faster than they can be
+     * written.
+     *
+     * @param overflow
+     *            The overflow policy.
+     */
+    public static void setOverflow(final AsyncLogger.Overflow overflow) {
+        logger.setOverflow(overflow);
+    }
+
+    /**
+     * Return whether messages of a given level are logged.
+     *
+     * @param l
+     *            The message level.
+     * @return True if messages are logged.
+     */
+    public static boolean isLogging(final Level l) {
+        return l.compareTo(level) >= 0 && l != Level.OFF;
+    }
+
+    /**
+     * Return whether informational messages are logged.
+     *
+     * @return True if log() messages are written.
+     */
+    public static boolean isLogging() {
+        return isLogging(Level.OK);
     }
 
-    public static synchronized void error(String message) {
-        final String now = new java.util.Date().toString();
-        System.err.println(now + " ERROR:   " + message);
+    /**
+     * Return the number of messages waiting to be written.
+     *
+     * @return Queued message count.
+     */
+    public static long pending() {
+        return logger.depth();
     }
 
-    public static synchronized void error(String message, Exception e) {
-        error(message);
-        e.printStackTrace();
+    public static void log(String message) {
+        if (isLogging(Level.OK))
+            logger.offer(false, " OK:      ", message, null);
+    }
+
+    public static void warning(String message) {
+        if (isLogging(Level.WARNING))
+            logger.offer(true, " WARNING: ", message, null);
+    }
+
+    public static void error(String message) {
+        if (isLogging(Level.ERROR))
+            logger.offer(true, " ERROR:   ", message, null);
+    }
+
+    public static void error(String message, Exception e) {
+        if (isLogging(Level.ERROR))
+            logger.offer(true, " ERROR:   ", message, e);
     }
 
     public static void fatal_error(String message) {
-        error(message);
-        System.exit(1);
+        logger.put(true, " ERROR:   ", message, null);
+        exit();
     }
 
     public static void fatal_error(String message, Exception e) {
-        error(message, e);
+        logger.put(true, " ERROR:   ", message, e);
+        exit();
+    }
+
+    // Write any queued messages before exiting
+    private static void exit() {
+        logger.sync(EXIT_TIMEOUT);
         System.exit(1);
     }
 }
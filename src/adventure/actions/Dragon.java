@@ -1,6 +1,7 @@
 package adventure.actions;
 
 import adventure.Action;
+import adventure.CommandTable;
 import adventure.Player;
 import adventure.RoomImpl;
 
@@ -34,6 +35,8 @@ public class Dragon implements Action {
             "/  ___/  \\uuuu/  ___/___)    \\______/", "VVV  V        VVV  V ",
             "", " RRRRRRAAAAAWWWR, A DRAGON!" };
 
+    private static final String[] verbs = new String[] { "show" };
+
     private final RoomImpl room;
 
     public Dragon(final RoomImpl room) {
@@ -41,9 +44,14 @@ public class Dragon implements Action {
     }
 
     @Override
-    public boolean process(final Player p, final String cmd) {
+    public String[] getVerbs() {
+        return verbs;
+    }
+
+    @Override
+    public boolean process(final Player p, final String verb, final String args) {
 
-        if (!cmd.matches("^show\\s+me\\s+a\\s+dragon$"))
+        if (!CommandTable.wordsMatch(args, "me a dragon"))
             return false;
 
         room.sendMessage(p, dragon);
@@ -9,6 +9,8 @@ import adventure.RoomImpl;
  */
 public class Go implements Action {
 
+    private static final String[] verbs = new String[] { "go" };
+
     private final RoomImpl room;
 
     public Go(final RoomImpl room) {
@@ -16,12 +18,18 @@ public class Go implements Action {
     }
 
     @Override
-    public boolean process(final Player p, final String cmd) {
+    public String[] getVerbs() {
+        return verbs;
+    }
 
-        if (!cmd.matches("^go\\s+.*"))
-            return false;
+    @Override
+    public boolean process(final Player p, final String verb, final String args) {
 
-        room.movePlayer(p, cmd.replaceFirst("go\\s+", ""));
+        if (args.trim().isEmpty())
+            room.sendMessage(p,
+                    "Go where? Type /go followed by a direction or user name");
+        else
+            room.movePlayer(p, args.trim());
 
         return true;
     }
@@ -1,55 +1,67 @@
 package adventure.actions;
 
-import java.util.Random;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import adventure.Action;
+import adventure.CommandTable;
+import adventure.Journal;
 import adventure.Player;
 import adventure.RoomImpl;
 import adventure.SystemIO;
 
 /**
- * Guess the number game.
+ * Guess the number game. Every player in the room may play their own game at
+ * the same time. Games are kept in a concurrent map keyed by user name, and end
+ * when the number is guessed, when the player leaves the room, or once they
+ * have gone unplayed for a while. The number of games in progress is bounded.
  */
 public class GuessTheNumber implements Action {
 
+    private static final String PLAY = "play";
+    private static final String GUESS = "guess";
+    private static final String[] verbs = new String[] { PLAY, GUESS };
+
+    // Maximum number of games in progress
+    private static final int MAX_SESSIONS = 1024;
+
+    // Time after which an unplayed game expires, in milliseconds
+    private static final long SESSION_TIMEOUT = 600000;
+
     private final RoomImpl room;
 
-    // Our game state:
-    private String playerName = "";
-    private int num;
+    // Games in progress, keyed by user name
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
 
     public GuessTheNumber(final RoomImpl room) {
         this.room = room;
     }
 
     @Override
-    public boolean process(final Player p, final String cmd) {
-
-        if (cmd.matches("^play guess the number")) {
-            if (playerName == "") {
-                // Start new Game
-                playerName = p.real_name();
-                num = new Random().nextInt(100);
-                room.sendMessage(p,
-                        "Welcome to guess the number! Type /guess followed by your first guess");
-                SystemIO.log("gtn: Player " + p.user_name() + " started game");
-            } else
-                // Game already going
-                room.sendMessage(p, "Sorry, someone else is already playing!");
+    public String[] getVerbs() {
+        return verbs;
+    }
+
+    @Override
+    public boolean process(final Player p, final String verb, final String args) {
 
+        if (verb.equals(PLAY) && CommandTable.wordsMatch(args,
+                "guess the number")) {
+            play(p, p.user_name());
             return true;
-        } else if (cmd.matches("^guess\\s+.*")) {
-
-            if (p.real_name().matches(playerName)) // Attempt guess
-                guess(p, cmd.replaceFirst("guess\\s+", ""));
-            else { // Not playing a game
-                if (playerName.matches("")) {
-                    room.sendMessage(p, "You're not playing a game!");
-                } else {
-                    room.sendMessage(p, playerName + " is already playing!");
-                    SystemIO.log("gtn: Locked " + p.user_name()
-                            + " from existing game");
-                }
+        } else if (verb.equals(GUESS)) {
+            final String name = p.user_name();
+            final Session session = sessions.get(name);
+
+            if (session == null || session.expired(System.currentTimeMillis())) {
+                if (session != null && sessions.remove(name, session))
+                    room.record(Journal.GAME_FINISHED, name);
+
+                room.sendMessage(p, "You're not playing a game!");
+            } else {
+                guess(p, name, session, args);
             }
 
             return true;
@@ -58,23 +70,79 @@ public class GuessTheNumber implements Action {
         return false;
     }
 
+    /**
+     * Start a new game for a player, unless they are already playing one.
+     *
+     * @param p
+     *            The player.
+     * @param name
+     *            The player's user name.
+     */
+    private void play(final Player p, final String name) {
+        final long now = System.currentTimeMillis();
+        final Session existing = sessions.get(name);
+
+        if (existing != null && !existing.expired(now)) {
+            room.sendMessage(p, "You're already playing! Type /guess "
+                    + "followed by your next guess");
+            return;
+        }
+
+        if (sessions.size() >= MAX_SESSIONS)
+            purge(now);
+
+        if (sessions.size() >= MAX_SESSIONS) {
+            room.sendMessage(p, "Sorry, too many games are being played. "
+                    + "Try again later!");
+            return;
+        }
+
+        final Session session = new Session(ThreadLocalRandom.current()
+                .nextInt(100), now);
+
+        if (existing == null ? sessions.putIfAbsent(name, session) != null
+                : !sessions.replace(name, existing, session)) {
+            // Another command from the player started a game first
+            room.sendMessage(p, "You're already playing! Type /guess "
+                    + "followed by your next guess");
+            return;
+        }
+
+        room.record(Journal.GAME_STARTED, session.number + " " + name);
+        room.sendMessage(p,
+                "Welcome to guess the number! Type /guess followed by your first guess");
+        if (SystemIO.isLogging())
+            SystemIO.log("gtn: Player " + name + " started game");
+    }
+
     /**
      * Attempt a guess at the correct number
-     * 
+     *
      * @param p
      *            The guessing player
+     * @param name
+     *            The player's user name
+     * @param session
+     *            The player's game
      * @param guessString
      *            The guess
      */
-    private void guess(final Player p, final String guessString) {
+    private void guess(final Player p, final String name,
+            final Session session, final String guessString) {
         try {
-            int guess = Integer.parseInt(guessString);
+            final int guess = Integer.parseInt(guessString);
+
+            session.lastPlayed = System.currentTimeMillis();
 
-            if (guess == num) {
-                room.sendMessage(p, "Well done! You got it right. End of game.");
-                SystemIO.log("gtn: Player " + p.user_name() + " finished game");
-                playerName = "";
-            } else if (guess > num)
+            if (guess == session.number) {
+                if (sessions.remove(name, session)) {
+                    room.record(Journal.GAME_FINISHED, name);
+                    room.sendMessage(p,
+                            "Well done! You got it right. End of game.");
+                    if (SystemIO.isLogging())
+                        SystemIO.log("gtn: Player " + name + " finished game");
+                }
+            } else if (guess > session.number)
                 room.sendMessage(p, "You guessed too high");
             else
                 room.sendMessage(p, "You guessed too low");
@@ -83,17 +151,105 @@ public class GuessTheNumber implements Action {
         }
     }
 
+    // Remove every expired game
+    private void purge(final long now) {
+        final Iterator<Map.Entry<String, Session>> it = sessions.entrySet()
+                .iterator();
+
+        while (it.hasNext()) {
+            final Map.Entry<String, Session> e = it.next();
+
+            if (e.getValue().expired(now)) {
+                it.remove();
+                room.record(Journal.GAME_FINISHED, e.getKey());
+            }
+        }
+    }
+
     @Override
     public String getHelpText() {
         return "/play guess the number      - play a round of guess the number!";
     }
 
+    /**
+     * Save the games in progress.
+     *
+     * @param games
+     *            Receives the number to guess in each game, keyed by user
+     *            name.
+     */
+    public void save(final Map<String, Integer> games) {
+        final long now = System.currentTimeMillis();
+
+        for (final Map.Entry<String, Session> e : sessions.entrySet()) {
+            if (!e.getValue().expired(now))
+                games.put(e.getKey(), e.getValue().number);
+        }
+    }
+
+    /**
+     * Restore saved games. Each game may be played for as long as a new game.
+     *
+     * @param games
+     *            The number to guess in each game, keyed by user name.
+     */
+    public void restore(final Map<String, Integer> games) {
+        final long now = System.currentTimeMillis();
+
+        for (final Map.Entry<String, Integer> e : games.entrySet())
+            sessions.put(e.getKey(), new Session(e.getValue(), now));
+    }
+
     // Player left callback
     public void player_left(final Player p) {
-        // Free player lock
-        if (p.real_name().matches(playerName)) {
-            SystemIO.log("gtn: Player " + p.user_name() + " left room");
-            playerName = "";
+        // End the player's game
+        final String name = p.user_name();
+
+        if (sessions.remove(name) == null)
+            return;
+
+        room.record(Journal.GAME_FINISHED, name);
+        if (SystemIO.isLogging())
+            SystemIO.log("gtn: Player " + name + " left room");
+    }
+
+    /**
+     * Apply a journalled change to saved games.
+     *
+     * @param games
+     *            The number to guess in each game, keyed by user name.
+     * @param type
+     *            GAME_STARTED or GAME_FINISHED.
+     * @param record
+     *            The journal record data.
+     */
+    public static void replay(final Map<String, Integer> games,
+            final int type, final String record) {
+        if (type == Journal.GAME_FINISHED) {
+            games.remove(record);
+        } else {
+            final int space = record.indexOf(' ');
+
+            games.put(record.substring(space + 1),
+                    Integer.parseInt(record.substring(0, space)));
+        }
+    }
+
+    /**
+     * A game in progress.
+     */
+    private static final class Session {
+
+        final int number;
+        volatile long lastPlayed;
+
+        Session(final int number, final long now) {
+            this.number = number;
+            this.lastPlayed = now;
+        }
+
+        boolean expired(final long now) {
+            return now - lastPlayed > SESSION_TIMEOUT;
         }
     }
 
@@ -1,40 +1,68 @@
 package adventure.actions;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 import adventure.Action;
+import adventure.Journal;
+import adventure.MessageStore;
 import adventure.Player;
 import adventure.RoomImpl;
 import adventure.SystemIO;
 
 /**
- * Command to read and write persistent messages.
+ * Command to read and write persistent messages. Messages are read a page at a
+ * time, most recent first.
  */
 public class Message implements Action {
 
+    private static final String WRITE = "write";
+    private static final String READ = "read";
+    private static final String[] verbs = new String[] { WRITE, READ };
+
+    // Number of messages per page
+    private static final int PAGE_SIZE = 10;
+
     private final RoomImpl room;
-    private final File store;
+    private final File file;
+    private MessageStore store;
 
     public Message(final RoomImpl room) {
+        this(room, "");
+    }
+
+    /**
+     * Create the message wall of a room, in a file whose name has a prefix.
+     * 
+     * @param room
+     *            The room.
+     * @param prefix
+     *            The prefix of the file name, e.g. the maze's user.
+     */
+    public Message(final RoomImpl room, final String prefix) {
         this.room = room;
-        this.store = new File(room.no + "-messages.log");
+        this.file = file(prefix, room.no);
+    }
+
+    @Override
+    public String[] getVerbs() {
+        return verbs;
     }
 
     @Override
-    public boolean process(final Player p, final String cmd) {
+    public boolean process(final Player p, final String verb, final String args) {
 
-        if (cmd.matches("^write\\s+.*")) {
-            writeMessage(p, cmd.replaceFirst("write\\s+", ""));
+        if (verb.equals(WRITE)) {
+            writeMessage(p, args);
             room.sendMessage(p.real_name() + " wrote a message on the wall");
             return true;
-        } else if (cmd.matches("^read$")) {
-            room.sendMessage(p, readMessages());
+        } else if (verb.equals(READ)) {
+            final int page = getPage(args);
+
+            if (page < 1)
+                return false;
+
+            room.sendMessage(p, readMessages(page));
             return true;
         }
 
@@ -49,47 +77,143 @@ public class Message implements Action {
      * @param message
      *            String
      */
-    private synchronized void writeMessage(final Player p, final String message) {
+    private void writeMessage(final Player p, final String message) {
+        final String line = "\"" + message + "\" - " + p.real_name();
+
         try {
-            final PrintWriter out = new PrintWriter(new BufferedWriter(
-                    new FileWriter(store, true)));
-            out.write("\"" + message + "\" - " + p.real_name() + "\n");
-            out.close();
-            SystemIO.log(store.getPath() + " updated");
+            final long n = getStore().append(line);
+
+            room.record(Journal.WALL_WRITTEN, n + " " + line);
+            SystemIO.log(file.getPath() + " updated");
         } catch (IOException e) {
             SystemIO.error("Failed to write message!", e);
         }
     }
 
     /**
-     * Return the player messages
+     * Return a page of player messages. Page 1 holds the most recent messages.
      * 
+     * @param page
+     *            The page number.
      * @return One message per element.
      */
-    private synchronized String[] readMessages() {
+    private String[] readMessages(final int page) {
         try {
-            final BufferedReader br = new BufferedReader(new FileReader(store));
+            final MessageStore store = getStore();
+            final long size = store.size();
+            final long pages = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+
+            if (size == 0)
+                return new String[] { "There's nothing written on the wall" };
+            else if (page > pages)
+                return new String[] { "There are only " + pages
+                        + " pages of messages" };
 
-            final StringBuilder sb = new StringBuilder();
-            String line = br.readLine();
+            final long end = size - (long) (page - 1) * PAGE_SIZE;
+            final String[] messages = store.read(Math.max(0, end - PAGE_SIZE),
+                    end);
+            final String[] lines = new String[messages.length + 1];
 
-            while (line != null) {
-                sb.append(line);
-                sb.append(System.lineSeparator());
-                line = br.readLine();
-            }
+            lines[0] = "Page " + page + " of " + pages + ":";
+            System.arraycopy(messages, 0, lines, 1, messages.length);
 
-            br.close();
+            return lines;
+        } catch (IOException e) {
+            SystemIO.error("Failed to read messages!", e);
+            return new String[] { "The writing on the wall is illegible" };
+        }
+    }
+
+    // Parse the page number argument, returning 0 if it is invalid
+    private static int getPage(final String args) {
+        if (args.isEmpty())
+            return 1;
+
+        try {
+            return Math.max(0, Integer.parseInt(args));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 
-            return sb.toString().split("\n");
+    /**
+     * Return the number of messages written on the wall.
+     * 
+     * @return Message count.
+     */
+    public long count() {
+        try {
+            return getStore().size();
         } catch (IOException e) {
-            return new String[] { "There's nothing written on the wall" };
+            SystemIO.error("Failed to read messages!", e);
+            return 0;
         }
     }
 
+    /**
+     * Check that the wall holds every message that was saved.
+     * 
+     * @param count
+     *            The saved number of messages.
+     */
+    public void restore(final long count) {
+        final long missing = count - count();
+
+        if (missing > 0)
+            SystemIO.warning(missing + " messages are missing from "
+                    + file.getPath());
+    }
+
+    /**
+     * Write a journalled message back to the wall of a room, if it was lost
+     * before reaching the disk.
+     * 
+     * @param prefix
+     *            The prefix of the name of the wall file.
+     * @param room
+     *            The room number.
+     * @param record
+     *            The data of a WALL_WRITTEN journal record.
+     * @return The number of messages on the wall up to and including the
+     *         journalled message, or 0 if it could not be recovered.
+     */
+    public static long recover(final String prefix, final int room,
+            final String record) {
+        final int space = record.indexOf(' ');
+
+        try {
+            final long n = Long.parseLong(record.substring(0, space));
+            final MessageStore store = MessageStore.open(file(prefix, room));
+
+            if (store.size() == n)
+                store.append(record.substring(space + 1));
+            else if (store.size() < n)
+                SystemIO.warning("Messages are missing from the wall of room "
+                        + room);
+
+            return n + 1;
+        } catch (IOException | RuntimeException e) {
+            SystemIO.error("Failed to recover message!", e);
+            return 0;
+        }
+    }
+
+    // The file holding the messages of a room
+    private static File file(final String prefix, final int room) {
+        return new File(prefix + room + "-messages.log");
+    }
+
+    // Open the message store on first use
+    private synchronized MessageStore getStore() throws IOException {
+        if (store == null)
+            store = MessageStore.open(file);
+
+        return store;
+    }
+
     @Override
     public String getHelpText() {
-        return "/read OR /write <message>   - read and write messages on the wall";
+        return "/read [page], /write <msg>  - read and write messages on the wall";
     }
 
 }
@@ -1,6 +1,7 @@
 package adventure.actions;
 
 import adventure.Action;
+import adventure.Metrics;
 import adventure.Player;
 import adventure.RoomImpl;
 import adventure.SystemIO;
@@ -12,6 +13,8 @@ import adventure.room_not_found;
  */
 public class Release implements Action {
 
+    private static final String[] verbs = new String[] { "release" };
+
     private final RoomImpl room;
 
     public Release(final RoomImpl room) {
@@ -19,21 +22,25 @@ public class Release implements Action {
     }
 
     @Override
-    public boolean process(final Player p, final String cmd) {
+    public String[] getVerbs() {
+        return verbs;
+    }
 
-        if (!cmd.matches("^release\\s+.*$"))
-            return false;
+    @Override
+    public boolean process(final Player p, final String verb, final String args) {
 
         try {
-            room.rs.move_item(room.no, p,
-                    Integer.parseInt(cmd.replaceFirst("release\\s+", "")),
+            final long start = System.nanoTime();
+            room.rs.move_item(room.no, p, Integer.parseInt(args),
                     room.location);
+            Metrics.call(Metrics.Call.MOVE_ITEM, start);
             room.sendMessage(p.real_name() + " dropped an item");
         } catch (NumberFormatException e) {
             room.sendMessage(p, "Not a valid item number!");
         } catch (cant_move_item e) {
             room.sendMessage(p, "You're not carrying that item!");
         } catch (room_not_found e) { // Server-side fuck up
+            Metrics.roomNotFound();
             SystemIO.error("Failed to drop item!", e);
         }
 
@@ -9,6 +9,8 @@ import adventure.RoomImpl;
  */
 public class Say implements Action {
 
+    private static final String[] verbs = new String[] { "say" };
+
     private final RoomImpl room;
 
     public Say(final RoomImpl room) {
@@ -16,12 +18,17 @@ public class Say implements Action {
     }
 
     @Override
-    public boolean process(final Player p, final String cmd) {
+    public String[] getVerbs() {
+        return verbs;
+    }
+
+    @Override
+    public boolean process(final Player p, final String verb, final String args) {
 
-        if (!cmd.matches("^say\\s.+"))
+        if (args.isEmpty())
             return false;
 
-        room.sendMessage(cmd.replaceFirst("say\\s+", p.real_name() + " says: "));
+        room.sendMessage(p.real_name() + " says: " + args);
 
         return true;
     }
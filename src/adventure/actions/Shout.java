@@ -9,6 +9,8 @@ import adventure.RoomImpl;
  */
 public class Shout implements Action {
 
+    private static final String[] verbs = new String[] { "shout" };
+
     private final RoomImpl room;
 
     public Shout(final RoomImpl room) {
@@ -16,13 +18,17 @@ public class Shout implements Action {
     }
 
     @Override
-    public boolean process(final Player p, final String cmd) {
+    public String[] getVerbs() {
+        return verbs;
+    }
+
+    @Override
+    public boolean process(final Player p, final String verb, final String args) {
 
-        if (!cmd.matches("^shout\\s.+"))
+        if (args.isEmpty())
             return false;
 
-        room.broadcastMessage(cmd.replaceFirst("shout\\s+", p.real_name()
-                + " shouts: "));
+        room.broadcastMessage(p.real_name() + " shouts: " + args);
 
         return true;
     }
@@ -2,6 +2,7 @@ package adventure.actions;
 
 import adventure.Action;
 import adventure.ItemLocation;
+import adventure.Metrics;
 import adventure.Player;
 import adventure.RoomImpl;
 import adventure.SystemIO;
@@ -13,6 +14,8 @@ import adventure.room_not_found;
  */
 public class Take implements Action {
 
+    private static final String[] verbs = new String[] { "take" };
+
     private final RoomImpl room;
 
     public Take(final RoomImpl room) {
@@ -20,23 +23,27 @@ public class Take implements Action {
     }
 
     @Override
-    public boolean process(final Player p, final String cmd) {
+    public String[] getVerbs() {
+        return verbs;
+    }
 
-        if (!cmd.matches("^take\\s+.*$"))
-            return false;
+    @Override
+    public boolean process(final Player p, final String verb, final String args) {
 
         try {
             final ItemLocation location = new ItemLocation();
             location.p(p);
 
-            room.rs.move_item(room.no, p, Integer.parseInt(cmd.replaceFirst(
-                    "take\\s+", "")), location);
+            final long start = System.nanoTime();
+            room.rs.move_item(room.no, p, Integer.parseInt(args), location);
+            Metrics.call(Metrics.Call.MOVE_ITEM, start);
             room.sendMessage(p.real_name() + " picked up an item");
         } catch (NumberFormatException e) {
             room.sendMessage(p, "Not a valid item number!");
         } catch (cant_move_item e) {
             room.sendMessage(p, "You're not holding that item!");
         } catch (room_not_found e) { // Server-side fuck up
+            Metrics.roomNotFound();
             SystemIO.error("Failed to drop item!", e);
         }
 
@@ -45,7 +52,7 @@ public class Take implements Action {
 
     @Override
     public String getHelpText() {
-        return "/release <id>             - drop an item in the room";
+        return "/take <id>                - pick up an item in the room";
     }
 
 }
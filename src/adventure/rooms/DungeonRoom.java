@@ -1,6 +1,10 @@
 package adventure.rooms;
 
+import java.util.concurrent.Executor;
+
 import adventure.CBRoomServer;
+import adventure.MazeGeometry;
+import adventure.Outbox;
 import adventure.Player;
 import adventure.RoomImpl;
 import adventure.actions.Dragon;
@@ -14,10 +18,7 @@ import adventure.actions.Dragon;
  */
 public class DungeonRoom extends RoomImpl {
 
-    protected final String description;
-    protected final int mazeWidth;
-    protected final int mazeHeight;
-    protected final int invalidNo;
+    protected volatile String description;
 
     /**
      * Construct a new dungeon room.
@@ -30,28 +31,48 @@ public class DungeonRoom extends RoomImpl {
      *            A string dungeon room description.
      * @param rs
      *            The callback room server.
-     * @param mazeWidth
-     *            The maze width.
-     * @param mazeHeight
-     *            The maze height.
+     * @param outbox
+     *            The outbound message queue.
+     * @param executor
+     *            The executor which runs the room's callbacks.
+     * @param geometry
+     *            The maze geometry.
      * @param actions
      *            A set of actions that the room implements.
      */
     public DungeonRoom(final int no, final String user,
             final String description, final CBRoomServer rs,
-            final int mazeWidth, final int mazeHeight) {
+            final Outbox outbox, final Executor executor,
+            final MazeGeometry geometry) {
 
-        super(no, user, rs, mazeWidth, mazeHeight);
+        super(no, user, rs, outbox, executor, geometry);
 
         this.description = description;
-        this.mazeWidth = mazeWidth;
-        this.mazeHeight = mazeHeight;
-        this.invalidNo = mazeHeight * mazeWidth + 1;
 
         // Room behaviour extensions:
         this.actions.add(new Dragon(this));
     }
 
+    /**
+     * Return the room description.
+     * 
+     * @return A string dungeon room description.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Change the room description. Players see the new description the next
+     * time the room is described.
+     *
+     * @param description
+     *            A string dungeon room description.
+     */
+    public void setDescription(final String description) {
+        this.description = description;
+    }
+
     @Override
     protected void description(final Player p) {
         this.description(p, description);
@@ -1,10 +1,14 @@
 package adventure.rooms;
 
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
 import adventure.CBRoomServer;
+import adventure.MazeGeometry;
+import adventure.Outbox;
 import adventure.Player;
 import adventure.RoomImpl;
+import adventure.RoomState;
 import adventure.actions.GuessTheNumber;
 import adventure.actions.Message;
 
@@ -15,12 +19,9 @@ import adventure.actions.Message;
  */
 public class MainRoom extends RoomImpl {
 
-    protected final int mazeWidth;
-    protected final int mazeHeight;
-    protected final int invalidNo;
-
     protected final ArrayList<String> messages;
 
+    private final Message wall;
     private final GuessTheNumber game;
 
     /**
@@ -34,26 +35,52 @@ public class MainRoom extends RoomImpl {
      *            A string dungeon room description.
      * @param rs
      *            The callback room server.
-     * @param mazeWidth
-     *            The maze width.
-     * @param mazeHeight
-     *            The maze height.
+     * @param outbox
+     *            The outbound message queue.
+     * @param executor
+     *            The executor which runs the room's callbacks.
+     * @param geometry
+     *            The maze geometry.
      * @param actions
      *            A set of actions that the room implements.
      */
     public MainRoom(final int no, final String user, final CBRoomServer rs,
-            final int mazeWidth, final int mazeHeight) {
+            final Outbox outbox, final Executor executor,
+            final MazeGeometry geometry) {
+        this(no, user, rs, outbox, executor, geometry, "");
+    }
+
+    /**
+     * Construct a new main room of a maze whose files are named with a
+     * prefix.
+     * 
+     * @param no
+     *            The room number.
+     * @param user
+     *            The username of the room server host.
+     * @param rs
+     *            The callback room server.
+     * @param outbox
+     *            The outbound message queue.
+     * @param executor
+     *            The executor which runs the room's callbacks.
+     * @param geometry
+     *            The maze geometry.
+     * @param prefix
+     *            The prefix of the name of the message wall file.
+     */
+    public MainRoom(final int no, final String user, final CBRoomServer rs,
+            final Outbox outbox, final Executor executor,
+            final MazeGeometry geometry, final String prefix) {
 
-        super(no, user, rs, mazeWidth, mazeHeight);
+        super(no, user, rs, outbox, executor, geometry);
 
-        this.mazeWidth = mazeWidth;
-        this.mazeHeight = mazeHeight;
-        this.invalidNo = mazeHeight * mazeWidth + 1;
         this.messages = new ArrayList<String>();
 
+        this.wall = new Message(this, prefix);
         this.game = new GuessTheNumber(this);
 
-        this.actions.add(new Message(this));
+        this.actions.add(wall);
         this.actions.add(game);
     }
 
@@ -63,9 +90,31 @@ public class MainRoom extends RoomImpl {
     }
 
     @Override
-    public synchronized void player_left(final Player p) {
+    protected void save(final RoomState state) {
+        super.save(state);
+
+        state.walls = wall.count();
+        game.save(state.games);
+    }
+
+    @Override
+    protected void restore(final RoomState state) {
+        super.restore(state);
+
+        wall.restore(state.walls);
+        game.restore(state.games);
+    }
+
+    // The guess the number game must not be lost
+    @Override
+    protected boolean isEvictable() {
+        return false;
+    }
+
+    @Override
+    protected void playerLeft(final Player p) {
         game.player_left(p);
 
-        super.player_left(p);
+        super.playerLeft(p);
     }
 }